@@ -0,0 +1,89 @@
+package de.hub.se.cfg;
+
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.GotoInstruction;
+import org.apache.bcel.generic.IfInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.InvokeInstruction;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.ReturnInstruction;
+import org.apache.bcel.generic.Select;
+
+/**
+ * Reference front end, which decodes methods with BCEL's MethodGen.
+ *
+ */
+public class BcelFrontEnd implements BytecodeFrontEnd {
+
+    private String className;
+    private ConstantPoolGen CPG;
+    private MethodGen mg;
+
+    @Override
+    public void startClass(JavaClass javaClass) {
+        this.className = javaClass.getClassName();
+        this.CPG = new ConstantPoolGen(javaClass.getConstantPool());
+        this.mg = null;
+    }
+
+    /**
+     * Gets the MethodGen of the last decoded method.
+     */
+    public MethodGen getMethodGen() {
+        return mg;
+    }
+
+    @Override
+    public MethodBytecode decode(Method method) {
+        mg = new MethodGen(method, className, CPG);
+        InstructionList il = mg.getInstructionList();
+        InstructionHandle lastHandle = il.getEnd();
+        MethodBytecode code = new MethodBytecode(
+                lastHandle.getPosition() + lastHandle.getInstruction().getLength(), mg.getLineNumberTable(CPG));
+
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+            int pos = ih.getPosition();
+            Instruction insn = ih.getInstruction();
+
+            if (insn instanceof BranchInstruction) {
+                if (insn instanceof GotoInstruction) {
+                    code.addBranch(pos, MethodBytecode.GOTO, ((GotoInstruction) insn).getTarget().getPosition());
+                } else if (insn instanceof IfInstruction) {
+                    code.addBranch(pos, MethodBytecode.IF, ((IfInstruction) insn).getTarget().getPosition());
+                } else if (insn instanceof Select) {
+                    Select selectInstr = (Select) insn;
+                    InstructionHandle[] targets = selectInstr.getTargets();
+                    if (selectInstr.getMatchs().length != targets.length) {
+                        throw new ClassFormatError("Invalid switch instruction: " + ih.toString().trim());
+                    }
+                    int[] targetOffsets = new int[targets.length];
+                    for (int k = 0; k < targets.length; k++) {
+                        targetOffsets[k] = targets[k].getPosition();
+                    }
+                    code.addSwitch(pos, targetOffsets, selectInstr.getTarget().getPosition());
+                } else {
+                    code.addBranch(pos, MethodBytecode.JSR, ((BranchInstruction) insn).getTarget().getPosition());
+                }
+            } else if (insn instanceof InvokeInstruction) {
+                InvokeInstruction invokeInstr = (InvokeInstruction) insn;
+                String methodClass = invokeInstr.getReferenceType(CPG).toString();
+                String methodName = invokeInstr.getMethodName(CPG);
+                byte kind = MethodBytecode.isExit(methodClass, methodName) ? MethodBytecode.EXIT
+                        : MethodBytecode.INVOKE;
+                code.addInvoke(pos, kind, CFGUtility.getFullQualifiedMethodName(methodClass, methodName,
+                        invokeInstr.getSignature(CPG)));
+            } else if (insn instanceof ReturnInstruction) {
+                code.addInstruction(pos, MethodBytecode.RETURN);
+            } else {
+                code.addInstruction(pos, MethodBytecode.OTHER);
+            }
+        }
+        return code;
+    }
+
+}
@@ -0,0 +1,23 @@
+package de.hub.se.cfg;
+
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+/**
+ * Front end, which decodes the bytecode of methods for the {@link CFGBuilder}. A front end is used by one builder only,
+ * so it may keep per-class state.
+ *
+ */
+public interface BytecodeFrontEnd {
+
+    /**
+     * Called before the methods of a new class are decoded.
+     */
+    void startClass(JavaClass javaClass);
+
+    /**
+     * Decodes a method of the current class, the method is neither abstract nor native.
+     */
+    MethodBytecode decode(Method method);
+
+}
@@ -1,5 +1,8 @@
 package de.hub.se.cfg;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -12,21 +15,44 @@ import java.util.*;
 
 public class CFG implements Serializable {
 
-    private static final long serialVersionUID = 7889362340700254268L;
+    private static final long serialVersionUID = -3216254862214137025L;
 
     protected List<CFGNode> nodes = new ArrayList<>();
     protected List<CFGEdge> edges = new ArrayList<>();
     protected String completeMethodName;
-    protected Set<String> invokedMethods = new HashSet<String>(); // set of invoked methods
-    protected Map<Integer, CFGNode> nodeOffsetMap = new HashMap<>(); // mapping from startOffset to node
-    protected Map<Integer, Integer> branchNodeMap = new HashMap<>(); // mapping from branch position to node id
-    protected Map<String, Set<Integer>> callNodeMap = new HashMap<>(); // mapping from method invocation to node id
-    protected Map<Integer, Integer> nodeBranchMap = new HashMap<>(); // mapping from node id to branch position
-    protected Map<Integer, Integer> edgeCoverageMap = new HashMap<>();
-    protected Map<Integer, Integer> nodeCoverageMap = new HashMap<>();
+    protected transient int methodId; // id of completeMethodName in the MethodSymbolTable
+    protected IntObjectMap<CFGNode> nodeOffsetMap = new IntObjectMap<>(); // mapping from startOffset to node
+    protected IntIntMap branchNodeMap = new IntIntMap(); // mapping from branch position to node id
+    /* Mapping from invoked method id to the ids of the calling nodes, serialized by method name. */
+    protected transient IntObjectMap<int[]> callNodeMap = new IntObjectMap<>();
+    protected IntIntMap nodeBranchMap = new IntIntMap(); // mapping from node id to branch position
+    protected IntIntMap edgeCoverageMap = new IntIntMap();
+    protected IntIntMap nodeCoverageMap = new IntIntMap();
 
-    protected Map<Integer, CFGNode> idNodeMap = new HashMap<>();
-    protected Map<Integer, Set<CFGNode>> nodeSourceLineMap = new HashMap<>();
+    protected IntObjectMap<CFGNode> idNodeMap = new IntObjectMap<>(); // only used until the CFG is frozen
+    protected IntObjectMap<Set<CFGNode>> nodeSourceLineMap = new IntObjectMap<>();
+    protected LineNumberIndex lineNumberIndex; // mapping from bytecode offset to source line
+
+    /*
+     * Adjacency in compressed sparse row format, only set when the CFG is frozen. Nodes are identified by their
+     * position in nodes, the slots of node i are offsets[i] .. offsets[i + 1] - 1, one slot per edge.
+     */
+    protected int[] successorOffsets;
+    protected int[] successorIndices; // position of the successor node
+    protected int[] successorEdges; // position of the edge in edges
+    protected int[] successorChoices;
+    protected int[] predecessorOffsets;
+    protected int[] predecessorIndices; // position of the predecessor node
+    protected int[] predecessorEdges; // position of the edge in edges
+    protected int[] predecessorChoices;
+    /* Slots, which repeat the node of an earlier slot of the same node, i.e. parallel edges. */
+    protected transient BitSet successorDuplicates;
+    protected transient BitSet predecessorDuplicates;
+    /*
+     * Edge by choice for the frozen CFG: node i owns the entries successorOffsets[i] + i .. successorOffsets[i + 1] + i
+     * for the choices -1 .. outdegree - 1, each holding the position of the edge in edges or -1.
+     */
+    protected int[] choiceEdges;
 
     public static final int OUTGOINGMATCH = 0;
     public static final int INCOMINGMATCH = 1;
@@ -37,6 +63,7 @@ public class CFG implements Serializable {
 
     public CFG(String name) {
         this.completeMethodName = name;
+        this.methodId = MethodSymbolTable.getGlobal().intern(name);
     }
 
     protected int getEntryBlockNodeId() {
@@ -90,15 +117,40 @@ public class CFG implements Serializable {
         return lastNode.getPredecessors();
     }
 
+    /**
+     * Removes the node from the node list. The node ids of a frozen CFG must stay consecutive and are referenced by the
+     * analysis, so nodes can only be removed before the CFG is frozen.
+     *
+     * @throws IllegalStateException
+     *             if the CFG is frozen
+     */
     protected void removeNode(CFGNode n) {
+        if (isFrozen()) {
+            throw new IllegalStateException("Cannot remove a node from the frozen cfg " + completeMethodName);
+        }
         nodes.remove(n);
     }
 
     protected void removeEdge(CFGEdge e) {
         edges.remove(e);
+        if (isFrozen()) {
+            freeze();
+        }
     }
 
     public CFGEdge getEdge(CFGNode sourceNode, CFGNode sinkNode) {
+        if (isFrozen()) {
+            int from = getLocalIndex(sourceNode.nodeId);
+            int to = getLocalIndex(sinkNode.nodeId);
+            if (from >= 0 && to >= 0) {
+                for (int slot = successorOffsets[from]; slot < successorOffsets[from + 1]; slot++) {
+                    if (successorIndices[slot] == to) {
+                        return edges.get(successorEdges[slot]);
+                    }
+                }
+            }
+            throw new NoSuchElementException("No matching edge exists in graph");
+        }
         for (int i = 0; i < edges.size(); i++) {
             CFGEdge e = (CFGEdge) edges.get(i);
             if ((e.predecessorId == sourceNode.nodeId) && (e.successorId == sinkNode.nodeId)) {
@@ -113,6 +165,26 @@ public class CFG implements Serializable {
      *
      */
     public CFGEdge getEdge(int nodeId, int choice) {
+        if (isFrozen()) {
+            int from = getLocalIndex(nodeId);
+            if (from >= 0) {
+                int entry = choice + 1;
+                if (entry >= 0 && entry <= successorOffsets[from + 1] - successorOffsets[from]) {
+                    int edge = choiceEdges[successorOffsets[from] + from + entry];
+                    if (edge >= 0) {
+                        return edges.get(edge);
+                    }
+                } else {
+                    /* Choice outside the table range, only possible for edges added with arbitrary choices. */
+                    for (int slot = successorOffsets[from]; slot < successorOffsets[from + 1]; slot++) {
+                        if (successorChoices[slot] == choice) {
+                            return edges.get(successorEdges[slot]);
+                        }
+                    }
+                }
+            }
+            throw new NoSuchElementException("No matching edge exists in graph");
+        }
         for (int i = 0; i < edges.size(); i++) {
             CFGEdge e = (CFGEdge) edges.get(i);
             if ((e.predecessorId == nodeId) && (e.choice == choice)) {
@@ -135,6 +207,32 @@ public class CFG implements Serializable {
      * Gets all edges which have the given source and sink nodes.
      */
     public CFGEdge[] getEdges(CFGNode sourceNode, CFGNode sinkNode, CFGEdge[] a) {
+        if (isFrozen()) {
+            int from = getLocalIndex(sourceNode.nodeId);
+            int to = getLocalIndex(sinkNode.nodeId);
+            int count = 0;
+            if (from >= 0 && to >= 0) {
+                for (int slot = successorOffsets[from]; slot < successorOffsets[from + 1]; slot++) {
+                    if (successorIndices[slot] == to) {
+                        count++;
+                    }
+                }
+            }
+            if (count == 0) {
+                throw new NoSuchElementException("No matching edges " + "exist in graph");
+            }
+            CFGEdge[] matchingEdges = a.length >= count ? a : Arrays.copyOf(a, count);
+            int k = 0;
+            for (int slot = successorOffsets[from]; slot < successorOffsets[from + 1]; slot++) {
+                if (successorIndices[slot] == to) {
+                    matchingEdges[k++] = edges.get(successorEdges[slot]);
+                }
+            }
+            if (matchingEdges.length > count) {
+                matchingEdges[count] = null;
+            }
+            return matchingEdges;
+        }
         List<Object> matchingEdges = new ArrayList<Object>();
         for (int i = 0; i < edges.size(); i++) {
             CFGEdge e = (CFGEdge) edges.get(i);
@@ -153,6 +251,20 @@ public class CFG implements Serializable {
      * Gets either all the edges which originate on a given node or which are incident on a node.
      */
     public CFGEdge[] getEdges(CFGNode n, int matchType, CFGEdge[] a) {
+        if (isFrozen()) {
+            int count = getEdgeCount(n.nodeId, matchType);
+            if (count == 0) {
+                return null;
+            }
+            CFGEdge[] matchingEdges = a.length >= count ? a : Arrays.copyOf(a, count);
+            for (int k = 0; k < count; k++) {
+                matchingEdges[k] = getEdge(n.nodeId, matchType, k);
+            }
+            if (matchingEdges.length > count) {
+                matchingEdges[count] = null;
+            }
+            return matchingEdges;
+        }
         List<Object> matchingEdges = new ArrayList<Object>();
         for (int i = 0; i < edges.size(); i++) {
             CFGEdge e = (CFGEdge) edges.get(i);
@@ -173,6 +285,14 @@ public class CFG implements Serializable {
      * Gets list of edges which originate on a given node or which are incident on a node.
      */
     public List<CFGEdge> getEdges(CFGNode n, int matchType) {
+        if (isFrozen()) {
+            int count = getEdgeCount(n.nodeId, matchType);
+            List<CFGEdge> matchingEdges = new ArrayList<CFGEdge>(count);
+            for (int k = 0; k < count; k++) {
+                matchingEdges.add(getEdge(n.nodeId, matchType, k));
+            }
+            return matchingEdges;
+        }
         List<CFGEdge> matchingEdges = new ArrayList<CFGEdge>();
         for (int i = 0; i < edges.size(); i++) {
             CFGEdge e = (CFGEdge) edges.get(i);
@@ -185,6 +305,58 @@ public class CFG implements Serializable {
         return matchingEdges;
     }
 
+    /**
+     * Gets the number of edges which originate on (OUTGOINGMATCH) or are incident on (INCOMINGMATCH) the given node.
+     * Together with {@link #getEdge(int, int, int)} the edges of a node can be iterated without allocation:
+     *
+     * <pre>
+     * for (int k = 0, count = cfg.getEdgeCount(nodeId, CFG.OUTGOINGMATCH); k &lt; count; k++) {
+     *     CFGEdge e = cfg.getEdge(nodeId, CFG.OUTGOINGMATCH, k);
+     * }
+     * </pre>
+     */
+    public int getEdgeCount(int nodeId, int matchType) {
+        if (isFrozen()) {
+            int i = getLocalIndex(nodeId);
+            if (i < 0) {
+                return 0;
+            }
+            int[] offsets = matchType == OUTGOINGMATCH ? successorOffsets : predecessorOffsets;
+            return offsets[i + 1] - offsets[i];
+        }
+        int count = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            CFGEdge e = edges.get(i);
+            if ((matchType == OUTGOINGMATCH) ? e.predecessorId == nodeId : e.successorId == nodeId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the k-th edge which originates on (OUTGOINGMATCH) or is incident on (INCOMINGMATCH) the given node, with k
+     * less than {@link #getEdgeCount(int, int)}.
+     */
+    public CFGEdge getEdge(int nodeId, int matchType, int k) {
+        if (isFrozen()) {
+            int i = getLocalIndex(nodeId);
+            int[] offsets = matchType == OUTGOINGMATCH ? successorOffsets : predecessorOffsets;
+            if (i < 0 || k < 0 || k >= offsets[i + 1] - offsets[i]) {
+                throw new NoSuchElementException("No matching edge exists in graph");
+            }
+            int[] slotEdges = matchType == OUTGOINGMATCH ? successorEdges : predecessorEdges;
+            return edges.get(slotEdges[offsets[i] + k]);
+        }
+        for (int i = 0; i < edges.size(); i++) {
+            CFGEdge e = edges.get(i);
+            if (((matchType == OUTGOINGMATCH) ? e.predecessorId == nodeId : e.successorId == nodeId) && k-- == 0) {
+                return e;
+            }
+        }
+        throw new NoSuchElementException("No matching edge exists in graph");
+    }
+
     /**
      * Gets the total number of nodes contained in the graph.
      */
@@ -221,6 +393,14 @@ public class CFG implements Serializable {
      *
      */
     public CFGNode getNodeById(int id) {
+        if (isFrozen()) {
+            /* Node ids of a frozen CFG are consecutive. */
+            int i = getLocalIndex(id);
+            if (i < 0) {
+                throw new NoSuchElementException();
+            }
+            return nodes.get(i);
+        }
         CFGNode node = idNodeMap.get(id);
         if (node == null) {
             throw new NoSuchElementException();
@@ -247,12 +427,212 @@ public class CFG implements Serializable {
      */
     protected void addEdge(CFGEdge e) {
         edges.add(e);
+        if (isFrozen()) {
+            freeze();
+            return;
+        }
         CFGNode fromNode = getNodeById(e.getPredecessorId());
         CFGNode toNode = getNodeById(e.getSuccessorId());
         fromNode.addSuccessor(toNode);
         toNode.addPredecessor(fromNode);
     }
 
+    public boolean isFrozen() {
+        return successorOffsets != null;
+    }
+
+    /**
+     * Freezes the adjacency of the nodes into compressed sparse row arrays, the per-node successor and predecessor sets
+     * are dropped and become views on these arrays. The node ids must be consecutive in the order of the node list.
+     * Adding or removing edges afterwards rebuilds the arrays.
+     */
+    protected void freeze() {
+        int nodeCount = nodes.size();
+        int edgeCount = edges.size();
+        int firstNodeId = nodes.get(0).getId();
+        for (int i = 0; i < nodeCount; i++) {
+            if (nodes.get(i).getId() != firstNodeId + i) {
+                throw new RuntimeException("Node ids in cfg " + completeMethodName + " are not consecutive!");
+            }
+        }
+
+        successorOffsets = new int[nodeCount + 1];
+        predecessorOffsets = new int[nodeCount + 1];
+        for (CFGEdge e : edges) {
+            successorOffsets[e.predecessorId - firstNodeId + 1]++;
+            predecessorOffsets[e.successorId - firstNodeId + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            successorOffsets[i + 1] += successorOffsets[i];
+            predecessorOffsets[i + 1] += predecessorOffsets[i];
+        }
+
+        successorIndices = new int[edgeCount];
+        successorEdges = new int[edgeCount];
+        successorChoices = new int[edgeCount];
+        predecessorIndices = new int[edgeCount];
+        predecessorEdges = new int[edgeCount];
+        predecessorChoices = new int[edgeCount];
+        int[] nextSuccessorSlot = Arrays.copyOf(successorOffsets, nodeCount);
+        int[] nextPredecessorSlot = Arrays.copyOf(predecessorOffsets, nodeCount);
+        for (int k = 0; k < edgeCount; k++) {
+            CFGEdge e = edges.get(k);
+            int from = e.predecessorId - firstNodeId;
+            int to = e.successorId - firstNodeId;
+            int slot = nextSuccessorSlot[from]++;
+            successorIndices[slot] = to;
+            successorEdges[slot] = k;
+            successorChoices[slot] = e.choice;
+            slot = nextPredecessorSlot[to]++;
+            predecessorIndices[slot] = from;
+            predecessorEdges[slot] = k;
+            predecessorChoices[slot] = e.choice;
+        }
+
+        choiceEdges = new int[edgeCount + nodeCount];
+        Arrays.fill(choiceEdges, -1);
+        for (int i = 0; i < nodeCount; i++) {
+            int first = successorOffsets[i] + i;
+            int width = successorOffsets[i + 1] - successorOffsets[i] + 1;
+            for (int slot = successorOffsets[i]; slot < successorOffsets[i + 1]; slot++) {
+                int entry = successorChoices[slot] + 1;
+                /* Keep the first edge for a choice, like the linear search. */
+                if (entry >= 0 && entry < width && choiceEdges[first + entry] < 0) {
+                    choiceEdges[first + entry] = successorEdges[slot];
+                }
+            }
+        }
+
+        markDuplicateSlots();
+
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.get(i).freeze(this, i);
+        }
+        idNodeMap.clear();
+    }
+
+    /**
+     * Marks the slots of parallel edges, so that the adjacency views report every node once in O(degree).
+     */
+    private void markDuplicateSlots() {
+        successorDuplicates = findDuplicateSlots(successorOffsets, successorIndices);
+        predecessorDuplicates = findDuplicateSlots(predecessorOffsets, predecessorIndices);
+    }
+
+    private static BitSet findDuplicateSlots(int[] offsets, int[] indices) {
+        int nodeCount = offsets.length - 1;
+        BitSet duplicates = new BitSet(indices.length);
+        int[] lastSeen = new int[nodeCount]; // node i + 1, whose slots last contained the node
+        for (int i = 0; i < nodeCount; i++) {
+            for (int slot = offsets[i]; slot < offsets[i + 1]; slot++) {
+                if (lastSeen[indices[slot]] == i + 1) {
+                    duplicates.set(slot);
+                } else {
+                    lastSeen[indices[slot]] = i + 1;
+                }
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Gets the position of the node with the given id in the frozen CFG.
+     *
+     * @return position in nodes, -1 if the CFG is not frozen or does not contain the node
+     */
+    protected int getLocalIndex(int nodeId) {
+        if (!isFrozen()) {
+            return -1;
+        }
+        int i = nodeId - nodes.get(0).nodeId;
+        return (i >= 0 && i < nodes.size()) ? i : -1;
+    }
+
+    /**
+     * Gets a read-only view on the successors or predecessors of the node at the given position.
+     */
+    protected Set<CFGNode> getAdjacentNodes(int localIndex, boolean successors) {
+        return new AdjacentNodeSet(localIndex, successors);
+    }
+
+    /**
+     * Read-only set view on the frozen adjacency of one node. Parallel edges between two nodes are reported once.
+     */
+    private class AdjacentNodeSet extends AbstractSet<CFGNode> {
+
+        private final int start;
+        private final int end;
+        private final int[] indices;
+        private final BitSet duplicates;
+
+        AdjacentNodeSet(int localIndex, boolean successors) {
+            int[] offsets = successors ? successorOffsets : predecessorOffsets;
+            this.start = offsets[localIndex];
+            this.end = offsets[localIndex + 1];
+            this.indices = successors ? successorIndices : predecessorIndices;
+            this.duplicates = successors ? successorDuplicates : predecessorDuplicates;
+        }
+
+        /* Checks whether the slot repeats a node of an earlier slot. */
+        private boolean isDuplicate(int slot) {
+            return duplicates.get(slot);
+        }
+
+        @Override
+        public Iterator<CFGNode> iterator() {
+            return new Iterator<CFGNode>() {
+                private int slot = skipDuplicates(start);
+
+                private int skipDuplicates(int s) {
+                    while (s < end && isDuplicate(s)) {
+                        s++;
+                    }
+                    return s;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return slot < end;
+                }
+
+                @Override
+                public CFGNode next() {
+                    if (slot >= end) {
+                        throw new NoSuchElementException();
+                    }
+                    CFGNode node = nodes.get(indices[slot]);
+                    slot = skipDuplicates(slot + 1);
+                    return node;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (int slot = start; slot < end; slot++) {
+                if (!isDuplicate(slot)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof CFGNode) || ((CFGNode) o).cfg != CFG.this) {
+                return false;
+            }
+            int localIndex = ((CFGNode) o).localIndex;
+            for (int slot = start; slot < end; slot++) {
+                if (indices[slot] == localIndex) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     /**
      * Adds a node to the CFG, creating an entry in the offset map so the node can be retrieved by its start offset
      * later.
@@ -285,6 +665,67 @@ public class CFG implements Serializable {
         updateIdNodeMapping(n);
     }
 
+    /**
+     * Assigns fresh node and edge ids to this CFG, e.g. after it was loaded from a cache, such that the ids cannot
+     * collide with ids generated in the current run. All id based mappings are updated, coverage is cleared.
+     */
+    protected void reassignIds() {
+        renumber(CFGNode.reserveNodeIDs(nodes.size()), CFGEdge.reserveEdgeIDs(edges.size()));
+    }
+
+    /**
+     * Renumbers the nodes and edges in list order with consecutive ids starting at the given ids. All id based mappings
+     * are updated, coverage is cleared.
+     */
+    protected void renumber(int firstNodeId, int firstEdgeId) {
+        final IntIntMap newIds = new IntIntMap(nodes.size());
+        int nextNodeId = firstNodeId;
+        boolean frozen = isFrozen();
+        idNodeMap.clear();
+        for (CFGNode node : nodes) {
+            newIds.put(node.nodeId, nextNodeId);
+            node.nodeId = nextNodeId++;
+            if (!frozen) {
+                idNodeMap.put(node.nodeId, node);
+            }
+        }
+
+        int nextEdgeId = firstEdgeId;
+        for (CFGEdge edge : edges) {
+            edge.edgeId = nextEdgeId++;
+            edge.predecessorId = newIds.get(edge.predecessorId, -1);
+            edge.successorId = newIds.get(edge.successorId, -1);
+        }
+
+        final IntIntMap oldBranchNodeMap = branchNodeMap;
+        branchNodeMap = new IntIntMap(oldBranchNodeMap.size());
+        oldBranchNodeMap.forEach(new IntIntMap.EntryConsumer() {
+            @Override
+            public void accept(int pos, int nodeId) {
+                branchNodeMap.put(pos, newIds.get(nodeId, -1));
+            }
+        });
+        final IntIntMap oldNodeBranchMap = nodeBranchMap;
+        nodeBranchMap = new IntIntMap(oldNodeBranchMap.size());
+        oldNodeBranchMap.forEach(new IntIntMap.EntryConsumer() {
+            @Override
+            public void accept(int nodeId, int pos) {
+                nodeBranchMap.put(newIds.get(nodeId, -1), pos);
+            }
+        });
+
+        callNodeMap.forEach(new IntObjectMap.EntryConsumer<int[]>() {
+            @Override
+            public void accept(int calledMethodId, int[] callerIds) {
+                for (int k = 0; k < callerIds.length; k++) {
+                    callerIds[k] = newIds.get(callerIds[k], -1);
+                }
+            }
+        });
+
+        clearCoverage();
+    }
+
     private void updateIdNodeMapping(CFGNode newNode) {
         if (idNodeMap.containsKey(newNode.getId())) {
             throw new RuntimeException("Node id " + newNode.getId() + " does already exist!");
@@ -300,6 +741,13 @@ public class CFG implements Serializable {
         return completeMethodName;
     }
 
+    /**
+     * Returns the id of the method in the global MethodSymbolTable.
+     */
+    public int getMethodId() {
+        return methodId;
+    }
+
     /**
      * Checks if one node is reachable from another node local in the cfg
      */
@@ -311,6 +759,26 @@ public class CFG implements Serializable {
         return nodeSourceLineMap.get(sourceLineNumber);
     }
 
+    protected void setLineNumberIndex(LineNumberIndex lineNumberIndex) {
+        this.lineNumberIndex = lineNumberIndex;
+    }
+
+    public LineNumberIndex getLineNumberIndex() {
+        return lineNumberIndex;
+    }
+
+    /**
+     * Maps a bytecode offset of this method to its source line.
+     * 
+     * @return source line, -1 if unknown
+     */
+    public int getSourceLine(int offset) {
+        if (lineNumberIndex == null) {
+            return -1;
+        }
+        return lineNumberIndex.getSourceLine(offset);
+    }
+
     /**
      * Checks if one node is reachable from another node local in the cfg
      */
@@ -397,17 +865,40 @@ public class CFG implements Serializable {
      * Adds a call, and maintain the mapping between it and its node
      */
     public void addCall(int nodeId, String methodName) {
-        // update callNodeMap
-        if (callNodeMap.containsKey(methodName)) {
-            callNodeMap.get(methodName).add(nodeId);
-        } else {
-            Set<Integer> nodes = new HashSet<Integer>();
-            nodes.add(nodeId);
-            callNodeMap.put(methodName, nodes);
+        addCall(nodeId, MethodSymbolTable.getGlobal().intern(methodName));
+    }
+
+    /**
+     * Adds a call of the method with the given symbol id.
+     */
+    public void addCall(int nodeId, int calledMethodId) {
+        int[] callerIds = callNodeMap.get(calledMethodId);
+        if (callerIds == null) {
+            callNodeMap.put(calledMethodId, new int[] { nodeId });
+            return;
         }
+        for (int callerId : callerIds) {
+            if (callerId == nodeId) {
+                return;
+            }
+        }
+        callerIds = Arrays.copyOf(callerIds, callerIds.length + 1);
+        callerIds[callerIds.length - 1] = nodeId;
+        callNodeMap.put(calledMethodId, callerIds);
+    }
 
-        // update invokedMethods
-        invokedMethods.add(methodName);
+    /**
+     * Gets the names of all methods invoked in this CFG.
+     */
+    public Set<String> getInvokedMethods() {
+        final Set<String> invokedMethods = new HashSet<>();
+        callNodeMap.forEach(new IntObjectMap.EntryConsumer<int[]>() {
+            @Override
+            public void accept(int calledMethodId, int[] callerIds) {
+                invokedMethods.add(MethodSymbolTable.getGlobal().getName(calledMethodId));
+            }
+        });
+        return invokedMethods;
     }
 
     /**
@@ -415,11 +906,7 @@ public class CFG implements Serializable {
      *
      */
     public int getBranchNode(int pos) {
-        if (branchNodeMap.containsKey(pos)) {
-            return branchNodeMap.get(pos).intValue();
-        } else {
-            return -1;
-        }
+        return branchNodeMap.get(pos, -1);
     }
 
     /**
@@ -427,11 +914,7 @@ public class CFG implements Serializable {
      *
      */
     public int getNodeBranch(int nodeId) {
-        if (nodeBranchMap.containsKey(nodeId)) {
-            return nodeBranchMap.get(nodeId).intValue();
-        } else {
-            return -1;
-        }
+        return nodeBranchMap.get(nodeId, -1);
     }
 
     /**
@@ -448,15 +931,15 @@ public class CFG implements Serializable {
      *
      */
     public Map<Integer, Integer> getEdgeCoverage() {
-        return edgeCoverageMap;
+        return edgeCoverageMap.asMap();
     }
 
     /**
-     * Sets edge coverage info
+     * Sets edge coverage info, the entries are copied.
      *
      */
     public void setEdgeCoverage(Map<Integer, Integer> coverage) {
-        this.edgeCoverageMap = coverage;
+        this.edgeCoverageMap = toIntIntMap(coverage);
     }
 
     /**
@@ -464,15 +947,55 @@ public class CFG implements Serializable {
      *
      */
     public Map<Integer, Integer> getNodeCoverage() {
-        return nodeCoverageMap;
+        return nodeCoverageMap.asMap();
     }
 
     /**
-     * Sets node coverage info
+     * Sets node coverage info, the entries are copied.
      *
      */
     public void setNodeCoverage(Map<Integer, Integer> coverage) {
-        this.nodeCoverageMap = coverage;
+        this.nodeCoverageMap = toIntIntMap(coverage);
+    }
+
+    private static IntIntMap toIntIntMap(Map<Integer, Integer> map) {
+        IntIntMap intMap = new IntIntMap(map.size());
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            intMap.put(entry.getKey(), entry.getValue());
+        }
+        return intMap;
+    }
+
+    /**
+     * Gets the coverage count of the edge, 0 if not covered.
+     */
+    public int getEdgeCoverage(int edgeId) {
+        return edgeCoverageMap.get(edgeId, 0);
+    }
+
+    /**
+     * Increases the coverage count of the edge by one.
+     *
+     * @return the new count
+     */
+    public int coverEdge(int edgeId) {
+        return edgeCoverageMap.add(edgeId, 1);
+    }
+
+    /**
+     * Gets the coverage count of the node, 0 if not covered.
+     */
+    public int getNodeCoverage(int nodeId) {
+        return nodeCoverageMap.get(nodeId, 0);
+    }
+
+    /**
+     * Increases the coverage count of the node by one.
+     *
+     * @return the new count
+     */
+    public int coverNode(int nodeId) {
+        return nodeCoverageMap.add(nodeId, 1);
     }
 
     /**
@@ -503,6 +1026,56 @@ public class CFG implements Serializable {
     }
 
     public Set<Integer> getInvocationNodesByTargetMethod(String targetMethodName) {
-        return callNodeMap.get(targetMethodName);
+        int[] callerIds = getInvocationNodeIds(MethodSymbolTable.getGlobal().getId(targetMethodName));
+        if (callerIds == null) {
+            return null;
+        }
+        Set<Integer> nodes = new HashSet<>();
+        for (int callerId : callerIds) {
+            nodes.add(callerId);
+        }
+        return nodes;
+    }
+
+    /**
+     * Gets the ids of all nodes calling the method with the given symbol id, the returned array must not be modified.
+     * 
+     * @return null if the method is not called in this CFG
+     */
+    public int[] getInvocationNodeIds(int calledMethodId) {
+        return calledMethodId < 0 ? null : callNodeMap.get(calledMethodId);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        final List<String> calledMethods = new ArrayList<>();
+        final List<int[]> callerIds = new ArrayList<>();
+        callNodeMap.forEach(new IntObjectMap.EntryConsumer<int[]>() {
+            @Override
+            public void accept(int calledMethodId, int[] ids) {
+                calledMethods.add(MethodSymbolTable.getGlobal().getName(calledMethodId));
+                callerIds.add(ids);
+            }
+        });
+        out.writeInt(calledMethods.size());
+        for (int k = 0; k < calledMethods.size(); k++) {
+            out.writeObject(calledMethods.get(k));
+            out.writeObject(callerIds.get(k));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        MethodSymbolTable symbols = MethodSymbolTable.getGlobal();
+        methodId = symbols.intern(completeMethodName);
+        int calledMethodCount = in.readInt();
+        callNodeMap = new IntObjectMap<>(calledMethodCount);
+        for (int k = 0; k < calledMethodCount; k++) {
+            String calledMethod = (String) in.readObject();
+            callNodeMap.put(symbols.intern(calledMethod), (int[]) in.readObject());
+        }
+        if (successorOffsets != null) {
+            markDuplicateSlots();
+        }
     }
 }
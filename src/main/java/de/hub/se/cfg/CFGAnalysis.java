@@ -1,11 +1,26 @@
 package de.hub.se.cfg;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class supports analysis based on CFG classes. Implementation based on jpf-memoize by Guowei Yang
@@ -16,23 +31,329 @@ import java.util.Set;
  */
 public class CFGAnalysis implements Serializable {
 
-    private static final long serialVersionUID = -820897258149888704L;
+    private static final long serialVersionUID = 5043717385562018262L;
 
     Map<String, CFG> cfgMap;
     Set<String> skippedFilesDuringAnalysis;
 
-    /* Maps method name to all nodes, which call this method. */
-    Map<String, Set<CFGNode>> callerCache = new HashMap<>();
+    /*
+     * Reverse call graph: maps method symbol id to all nodes of other methods, which call this method. Built once over
+     * all CFGs and extended whenever a CFG is added, rebuilt on demand after deserialization.
+     */
+    transient IntObjectMap<CallSites> callerCache;
+
+    /* Methods whose potential callers have already been built in lazy mode. */
+    private transient BitSet potentialCallersBuilt;
+
+    /* Call sites indexed by method symbol id, built once in eager mode and read without locking. */
+    private transient volatile CallSites[] callSitesBySymbol;
+
+    /* CFGs indexed by method symbol id, filled on first access by id. */
+    private transient volatile AtomicReferenceArray<CFG> cfgsBySymbol;
+
+    /* Symbol ids of the methods included in the analysis, built on first use. */
+    private transient volatile BitSet includedMethodIds;
 
     Set<CFGTarget> targets;
 
+    /* Source for lazy CFG construction, null if all CFGs are built up front. Only built CFGs are serialized. */
+    transient CFGSource methodIndex;
+
+    /* Locks of the methods, which are currently built in lazy mode. */
+    private final transient ConcurrentHashMap<String, Object> buildLocks = new ConcurrentHashMap<>();
+
+    /* Number of node and edge ids assigned so far, the ids of this analysis are 0 .. count - 1. */
+    int nodeCount;
+    int edgeCount;
+
+    /* Nodes indexed by their id, rebuilt on demand after deserialization. */
+    private transient CFGNode[] nodesById;
+
+    /* Distances of all nodes to the targets, indexed by target node id and node id. */
+    DistanceMatrix distances = new DistanceMatrix(false);
+
+    /* Call graph of all CFGs, discarded when a CFG is added. */
+    private transient CallGraph callGraph;
+
+    /**
+     * Creates an analysis for the given CFGs. The nodes and edges of all CFGs are renumbered with dense ids, in the
+     * order of the method names and, within a method, in the order of their bytecode offsets. So the ids only depend on
+     * the analyzed code and not on the order in which the CFGs were built.
+     */
     public CFGAnalysis(Map<String, CFG> cfgMap, Set<String> skippedFilesDuringAnalysis) {
         this.cfgMap = cfgMap;
         this.skippedFilesDuringAnalysis = skippedFilesDuringAnalysis;
         this.targets = new HashSet<>();
+
+        this.callerCache = new IntObjectMap<>();
+        List<String> methods = new ArrayList<>(cfgMap.keySet());
+        Collections.sort(methods);
+        for (String method : methods) {
+            CFG cfg = cfgMap.get(method);
+            if (cfg != null) {
+                assignIds(cfg);
+                indexCallers(cfg);
+            }
+        }
+    }
+
+    /**
+     * Creates an analysis, which builds the CFG of a method on first use. Node and edge ids are dense as well, but are
+     * assigned in the order in which the CFGs are built.
+     */
+    public CFGAnalysis(CFGSource methodIndex, Set<String> skippedFilesDuringAnalysis) {
+        this(new ConcurrentHashMap<String, CFG>(), skippedFilesDuringAnalysis);
+        this.methodIndex = methodIndex;
+    }
+
+    /**
+     * Restores an analysis, whose node and edge ids have already been assigned, e.g. when it is read from disk.
+     */
+    CFGAnalysis(Map<String, CFG> cfgMap, Set<String> skippedFilesDuringAnalysis, Set<CFGTarget> targets,
+            int nodeCount, int edgeCount, DistanceMatrix distances) {
+        this(null, cfgMap, skippedFilesDuringAnalysis, targets, nodeCount, edgeCount, distances);
+    }
+
+    /**
+     * Restores an analysis, which loads its CFGs with their assigned ids on first use from the given source.
+     */
+    CFGAnalysis(CFGSource methodIndex, Map<String, CFG> cfgMap, Set<String> skippedFilesDuringAnalysis,
+            Set<CFGTarget> targets, int nodeCount, int edgeCount, DistanceMatrix distances) {
+        this.methodIndex = methodIndex;
+        this.cfgMap = cfgMap;
+        this.skippedFilesDuringAnalysis = skippedFilesDuringAnalysis;
+        this.targets = targets;
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+        this.distances = distances;
+        for (CFG cfg : cfgMap.values()) {
+            attachDistances(cfg);
+        }
+    }
+
+    /**
+     * Gets the CFG for the given method, in lazy mode it is built if necessary.
+     * 
+     * @return null if the method is not included in the analysis
+     */
+    protected CFG getCFG(String fullQualifiedMethodName) {
+        CFG cfg = cfgMap.get(fullQualifiedMethodName);
+        if (cfg == null && methodIndex != null) {
+            /* Build every method at most once, other methods are built in parallel. */
+            Object buildLock = new Object();
+            Object existingLock = buildLocks.putIfAbsent(fullQualifiedMethodName, buildLock);
+            if (existingLock != null) {
+                buildLock = existingLock;
+            }
+            synchronized (buildLock) {
+                try {
+                    cfg = cfgMap.get(fullQualifiedMethodName);
+                    if (cfg == null) {
+                        cfg = methodIndex.build(fullQualifiedMethodName);
+                        if (cfg != null) {
+                            addBuiltCFG(fullQualifiedMethodName, cfg);
+                        }
+                    }
+                } finally {
+                    buildLocks.remove(fullQualifiedMethodName, buildLock);
+                }
+            }
+        }
+        return cfg;
+    }
+
+    private synchronized void addBuiltCFG(String fullQualifiedMethodName, CFG cfg) {
+        if (methodIndex.providesIds()) {
+            addWithAssignedIds(cfg);
+        } else {
+            assignIds(cfg);
+        }
+        if (callerCache != null) {
+            indexCallers(cfg);
+        }
+        cfgMap.put(fullQualifiedMethodName, cfg);
+    }
+
+    /**
+     * Renumbers the nodes and edges of the CFG with the next free ids of this analysis.
+     */
+    private synchronized void assignIds(CFG cfg) {
+        cfg.renumber(nodeCount, edgeCount);
+        nodeCount += cfg.getNodeCount();
+        edgeCount += cfg.getEdgeCount();
+        callGraph = null;
+        attachDistances(cfg);
+        if (nodesById != null) {
+            registerNodes(cfg);
+        }
+    }
+
+    private void addWithAssignedIds(CFG cfg) {
+        callGraph = null;
+        attachDistances(cfg);
+        if (nodesById != null) {
+            registerNodes(cfg);
+        }
+    }
+
+    private void attachDistances(CFG cfg) {
+        for (CFGNode node : cfg.nodes) {
+            node.setDistanceMatrix(distances);
+        }
     }
 
+    /**
+     * Stores the distances in direct buffers outside of the Java heap, or on the heap. Must be set before the first
+     * distances are calculated.
+     */
+    public synchronized void setOffHeapDistances(boolean offHeap) {
+        if (distances.getTargetCount() > 0) {
+            throw new RuntimeException("Distances have already been calculated.");
+        }
+        distances = new DistanceMatrix(offHeap);
+        for (CFG cfg : cfgMap.values()) {
+            attachDistances(cfg);
+        }
+    }
+
+    /**
+     * Gets the distances of all nodes to the processed targets.
+     */
+    public DistanceMatrix getDistanceMatrix() {
+        return distances;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (CFG cfg : cfgMap.values()) {
+            attachDistances(cfg);
+        }
+    }
+
+    private void registerNodes(CFG cfg) {
+        if (nodesById.length < nodeCount) {
+            nodesById = Arrays.copyOf(nodesById, Math.max(nodeCount, 2 * nodesById.length));
+        }
+        for (CFGNode node : cfg.nodes) {
+            nodesById[node.getId()] = node;
+        }
+    }
+
+    /**
+     * Adds the call sites of the CFG to the reverse call graph. Recursive calls of a method to itself are not recorded.
+     */
+    private void indexCallers(final CFG cfg) {
+        cfg.callNodeMap.forEach(new IntObjectMap.EntryConsumer<int[]>() {
+            @Override
+            public void accept(int calledMethodId, int[] callerIds) {
+                if (calledMethodId == cfg.getMethodId()) {
+                    return;
+                }
+                CallSites callers = callerCache.get(calledMethodId);
+                if (callers == null) {
+                    callers = new CallSites();
+                    callerCache.put(calledMethodId, callers);
+                }
+                for (int callerId : callerIds) {
+                    callers.add(cfg.getNodeById(callerId));
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the call graph between all analyzed methods, in lazy mode all CFGs are built first.
+     */
+    public CallGraph getCallGraph() {
+        Collection<CFG> cfgs = getAllIncludedCFG();
+        synchronized (this) {
+            if (callGraph == null) {
+                callGraph = new CallGraph(cfgs);
+            }
+            return callGraph;
+        }
+    }
+
+    /**
+     * Gets the number of node ids assigned by this analysis, node ids are 0 .. getNodeCount() - 1.
+     */
+    public synchronized int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Gets the number of edge ids assigned by this analysis, edge ids are 0 .. getEdgeCount() - 1.
+     */
+    public synchronized int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Gets the node with the given id of this analysis.
+     */
+    public synchronized CFGNode getNodeById(int nodeId) {
+        if (nodesById == null) {
+            nodesById = new CFGNode[nodeCount];
+            for (CFG cfg : cfgMap.values()) {
+                registerNodes(cfg);
+            }
+        }
+        if (nodeId < 0 || nodeId >= nodeCount || nodesById[nodeId] == null) {
+            throw new RuntimeException("Unknown node id: " + nodeId);
+        }
+        return nodesById[nodeId];
+    }
+
+    /**
+     * Gets the CFG for the method with the given symbol id, in lazy mode it is built if necessary.
+     * 
+     * @return null if the method is not included in the analysis
+     */
+    protected CFG getCFG(int methodId) {
+        AtomicReferenceArray<CFG> cfgs = cfgsBySymbol;
+        if (cfgs != null && methodId < cfgs.length()) {
+            CFG cfg = cfgs.get(methodId);
+            if (cfg != null) {
+                return cfg;
+            }
+        }
+        CFG cfg = getCFG(MethodSymbolTable.getGlobal().getName(methodId));
+        if (cfg != null) {
+            cacheCFG(methodId, cfg);
+        }
+        return cfg;
+    }
+
+    private synchronized void cacheCFG(int methodId, CFG cfg) {
+        AtomicReferenceArray<CFG> cfgs = cfgsBySymbol;
+        if (cfgs == null || methodId >= cfgs.length()) {
+            int length = Math.max(methodId + 1, MethodSymbolTable.getGlobal().size());
+            AtomicReferenceArray<CFG> grown = new AtomicReferenceArray<>(length);
+            for (int i = 0; cfgs != null && i < cfgs.length(); i++) {
+                grown.set(i, cfgs.get(i));
+            }
+            cfgs = grown;
+            cfgsBySymbol = grown;
+        }
+        cfgs.set(methodId, cfg);
+    }
+
+    /**
+     * Builds all CFGs, which have not been built yet in lazy mode.
+     */
+    public void materializeAll() {
+        if (methodIndex != null) {
+            for (String method : methodIndex.getMethods()) {
+                getCFG(method);
+            }
+        }
+    }
+
+    /**
+     * Gets all CFGs, in lazy mode all CFGs are built first.
+     */
     public Collection<CFG> getAllIncludedCFG() {
+        materializeAll();
         return cfgMap.values();
     }
 
@@ -45,6 +366,22 @@ public class CFGAnalysis implements Serializable {
     }
 
     public void calculateDistancesToTargets(Set<String> setOfTargets) {
+        calculateDistancesToTargets(setOfTargets, 1);
+    }
+
+    /**
+     * Calculates the distances of all nodes to the given targets, targets which have already been processed are
+     * skipped. With a parallelism greater than 1 the targets are distributed over a fork-join pool. Every target is
+     * computed in its own array and merged into its row of the distance matrix, the rows are added in the order of the
+     * given targets, so the result does not depend on the scheduling. In lazy mode all CFGs are built first.
+     * 
+     * @param setOfTargets
+     *            - targets in the format method:sourceLine
+     * @param parallelism
+     *            - number of worker threads
+     */
+    public void calculateDistancesToTargets(Set<String> setOfTargets, int parallelism) {
+        List<CFGNode> targetNodes = new ArrayList<>();
         for (String target : setOfTargets) {
             String[] separatedArgument = target.split(":");
             String targetMethod = separatedArgument[0];
@@ -53,125 +390,515 @@ public class CFGAnalysis implements Serializable {
             /* Check and update already defined targets. */
             CFGTarget cfgTarget = new CFGTarget(targetMethod, targetSourceLine);
             if (!targets.add(cfgTarget)) {
-                return; // already calculated;
+                continue; // already calculated
             }
 
             /* Check whether target method is actually in the analyzed classes. */
             CFGNode targetNode = getNodeByMethodAndSourceLine(targetMethod, targetSourceLine);
-            int globalTargetNodeId = targetNode.getId();
-            targetNode.setDistance(globalTargetNodeId, 0);
+            if (distances.containsTarget(targetNode.getId())) {
+                continue; // other source line of an already calculated node
+            }
+            distances.set(targetNode.getId(), targetNode.getId(), 0);
+            targetNodes.add(targetNode);
+        }
+
+        if (parallelism <= 1 || targetNodes.size() <= 1) {
+            for (CFGNode targetNode : targetNodes) {
+                distances.merge(targetNode.getId(), new DistanceSearch(Collections.singletonList(targetNode)).run());
+            }
+        } else {
+            materializeAll();
+            int nodeCount = getNodeCount();
+            for (CFGNode targetNode : targetNodes) {
+                distances.ensureNodeCount(targetNode.getId(), nodeCount);
+            }
+            if (methodIndex == null) {
+                indexCallSites(); // before the workers read it
+            }
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new ParallelDistanceTask(targetNodes, 0, targetNodes.size()));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
 
-            /* Start calculation */
-            updateNodeAndAllPredecessorNodes(targetNode, globalTargetNodeId, true);
+    /**
+     * Calculates the distances of all nodes to the given targets like {@link #calculateDistancesToTargets(Set, int)},
+     * but the rows of targets, which were calculated before for the same CFGs, are loaded from the cache. Only the
+     * missing targets are calculated and then added to the cache. All CFGs are built first to hash the analyzed code.
+     * 
+     * @param setOfTargets
+     *            - targets in the format method:sourceLine
+     * @param parallelism
+     *            - number of worker threads for the missing targets
+     */
+    public void calculateDistancesToTargets(Set<String> setOfTargets, int parallelism, DistanceCache cache) {
+        String codeHash = cache.getCodeHash(this);
+        int nodeCount = getNodeCount();
+        Set<String> missingTargets = new LinkedHashSet<>();
+        for (String target : setOfTargets) {
+            CFGTarget cfgTarget = CFGTarget.createCFGTargetFromString(target);
+            if (targets.contains(cfgTarget)) {
+                continue; // already calculated
+            }
+            CFGNode targetNode = getNodeByMethodAndSourceLine(cfgTarget.getMethod(), cfgTarget.getSourceLineNumber());
+            int[] nodeDistances = targetNode == null ? null
+                    : cache.load(codeHash, cfgTarget, targetNode.getId(), nodeCount);
+            if (nodeDistances == null) {
+                missingTargets.add(target);
+                continue;
+            }
+            targets.add(cfgTarget);
+            distances.ensureNodeCount(targetNode.getId(), nodeCount);
+            distances.merge(targetNode.getId(), nodeDistances);
+        }
+
+        calculateDistancesToTargets(missingTargets, parallelism);
+
+        for (String target : missingTargets) {
+            CFGTarget cfgTarget = CFGTarget.createCFGTargetFromString(target);
+            int targetId = getNodeByMethodAndSourceLine(cfgTarget.getMethod(), cfgTarget.getSourceLineNumber())
+                    .getId();
+            int[] nodeDistances = new int[nodeCount];
+            for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+                nodeDistances[nodeId] = distances.get(targetId, nodeId);
+            }
+            cache.store(codeHash, cfgTarget, targetId, nodeDistances);
         }
     }
 
-    private int updateNodeAndAllPredecessorNodes(CFGNode node, int targetId, boolean includeMethodCallers) {
-        Set<CFGNode> toCheck = new HashSet<CFGNode>();
-        toCheck.add(node);
-        int lastDistance = node.getDistance(targetId);
+    /**
+     * Computes the distances to the targets from..to - 1 and merges each into its row of the distance matrix.
+     */
+    private class ParallelDistanceTask extends RecursiveAction {
 
-        while (!toCheck.isEmpty()) {
-            CFGNode currentNode = toCheck.iterator().next();
-            toCheck.remove(currentNode);
-            
-            int currentDistance = currentNode.getDistance(targetId);
-            lastDistance = currentDistance; 
+        private static final long serialVersionUID = 1L;
 
-            /* Get predecessor nodes for current node. */
-            Set<CFGNode> predecessorNodes;
-            if (currentNode.isRootNode) {
-                if (includeMethodCallers) {
-                    predecessorNodes = getCallers(currentNode.getFullQualifiedMethodName());
-                } else {
+        private final List<CFGNode> targetNodes;
+        private final int from;
+        private final int to;
+
+        ParallelDistanceTask(List<CFGNode> targetNodes, int from, int to) {
+            this.targetNodes = targetNodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParallelDistanceTask(targetNodes, from, middle),
+                        new ParallelDistanceTask(targetNodes, middle, to));
+            } else if (to > from) {
+                CFGNode targetNode = targetNodes.get(from);
+                distances.merge(targetNode.getId(), new DistanceSearch(Collections.singletonList(targetNode)).run());
+            }
+        }
+    }
+
+    /**
+     * Calculates for every node the distance to the nearest of the given targets. A single search is started from all
+     * target nodes at once, so only one distance per node is computed and stored. The distance matrix and the processed
+     * targets are not changed.
+     * 
+     * @param setOfTargets
+     *            - targets in the format method:sourceLine
+     * @return distance per node id, {@link DistanceMatrix#UNREACHABLE} if no target can be reached from the node
+     */
+    public int[] calculateMinDistancesToTargets(Set<String> setOfTargets) {
+        int[] nodeDistances = new DistanceSearch(getTargetNodes(setOfTargets)).run();
+        int nodeCount = getNodeCount();
+        if (nodeDistances.length < nodeCount) {
+            int length = nodeDistances.length;
+            nodeDistances = Arrays.copyOf(nodeDistances, nodeCount);
+            Arrays.fill(nodeDistances, length, nodeCount, DistanceMatrix.UNREACHABLE);
+        }
+        return nodeDistances;
+    }
+
+    /**
+     * Calculates for every node the distance to the given targets as defined by AFLGo: the harmonic mean of the
+     * distances to all reachable targets, 0 for the target nodes themselves. The harmonic mean needs the distance to
+     * every single target, so one search per target is run, but each result is added to a running sum of inverse
+     * distances and dropped. The distance matrix and the processed targets are not changed.
+     * 
+     * @param setOfTargets
+     *            - targets in the format method:sourceLine
+     * @return distance per node id, -1 if no target can be reached from the node
+     */
+    public double[] calculateHarmonicDistancesToTargets(Set<String> setOfTargets) {
+        List<CFGNode> targetNodes = getTargetNodes(setOfTargets);
+        double[] inverseSums = new double[0];
+        boolean[] reachesTarget = new boolean[0];
+        for (CFGNode targetNode : targetNodes) {
+            int[] nodeDistances = new DistanceSearch(Collections.singletonList(targetNode)).run();
+            if (inverseSums.length < nodeDistances.length) {
+                inverseSums = Arrays.copyOf(inverseSums, nodeDistances.length);
+                reachesTarget = Arrays.copyOf(reachesTarget, nodeDistances.length);
+            }
+            for (int nodeId = 0; nodeId < nodeDistances.length; nodeId++) {
+                int distance = nodeDistances[nodeId];
+                if (distance != DistanceMatrix.UNREACHABLE) {
+                    reachesTarget[nodeId] = true;
+                    if (distance > 0) {
+                        inverseSums[nodeId] += 1.0 / distance;
+                    }
+                }
+            }
+        }
+
+        double[] nodeDistances = new double[getNodeCount()];
+        for (int nodeId = 0; nodeId < nodeDistances.length; nodeId++) {
+            if (nodeId >= reachesTarget.length || !reachesTarget[nodeId]) {
+                nodeDistances[nodeId] = -1;
+            } else if (inverseSums[nodeId] > 0) {
+                nodeDistances[nodeId] = 1.0 / inverseSums[nodeId];
+            }
+        }
+        for (CFGNode targetNode : targetNodes) {
+            nodeDistances[targetNode.getId()] = 0;
+        }
+        return nodeDistances;
+    }
+
+    /**
+     * Compiles the runtime lookup from method id and bytecode offset to the distance to the nearest processed target.
+     * In lazy mode all CFGs are built first.
+     */
+    public DistanceLookup compileDistanceLookup() {
+        Collection<CFG> cfgs = getAllIncludedCFG();
+        return new DistanceLookup(cfgs, getMinDistances());
+    }
+
+    /**
+     * Publishes the distance of every node to the nearest processed target as {@link SharedDistanceMap}, the block ids
+     * of the map are the node ids. The published table replaces the file atomically. In lazy mode all CFGs are built
+     * first.
+     */
+    public void publishDistanceMap(Path file) throws IOException {
+        materializeAll();
+        SharedDistanceMap.publish(file, getMinDistances(), distances.getTargetCount());
+    }
+
+    /**
+     * Gets the distance of every node to the nearest processed target, taken from the rows of the distance matrix.
+     */
+    private int[] getMinDistances() {
+        int[] nodeDistances = new int[getNodeCount()];
+        Arrays.fill(nodeDistances, DistanceMatrix.UNREACHABLE);
+        for (int targetId : distances.getTargetIds()) {
+            for (int nodeId = 0; nodeId < nodeDistances.length; nodeId++) {
+                nodeDistances[nodeId] = Math.min(nodeDistances[nodeId], distances.get(targetId, nodeId));
+            }
+        }
+        return nodeDistances;
+    }
+
+    /**
+     * Compiles the runtime lookup from method id and bytecode offset to the given distances, e.g. the result of
+     * {@link #calculateMinDistancesToTargets(Set)}. In lazy mode all CFGs are built first.
+     * 
+     * @param nodeDistances
+     *            - distance per node id
+     */
+    public DistanceLookup compileDistanceLookup(int[] nodeDistances) {
+        return new DistanceLookup(getAllIncludedCFG(), nodeDistances);
+    }
+
+    /**
+     * Gets the distinct nodes of the given targets.
+     */
+    private List<CFGNode> getTargetNodes(Set<String> setOfTargets) {
+        List<CFGNode> targetNodes = new ArrayList<>();
+        BitSet targetNodeIds = new BitSet();
+        for (String target : setOfTargets) {
+            CFGTarget cfgTarget = CFGTarget.createCFGTargetFromString(target);
+            CFGNode targetNode = getNodeByMethodAndSourceLine(cfgTarget.getMethod(), cfgTarget.getSourceLineNumber());
+            if (!targetNodeIds.get(targetNode.getId())) {
+                targetNodeIds.set(targetNode.getId());
+                targetNodes.add(targetNode);
+            }
+        }
+        return targetNodes;
+    }
+
+    /**
+     * Computes the distances of all nodes to the nearest of the target nodes with a 0-1 breadth first search backwards
+     * over the interprocedural predecessor relation. The weights are:
+     * <ul>
+     * <li>1 from a node to a real predecessor node in the same method, 0 to a virtual one,</li>
+     * <li>1 from the root node of a method to every node calling this method,</li>
+     * <li>0 from a node to the exit nodes of all methods called by its predecessor node, i.e. the called method returns
+     * and the execution continues at the node. CAUTION: leads to over-statement of reachability! This is skipped for the
+     * method we come from if the predecessor is the last real node of its method, because then we would just get back
+     * from where we have arrived from.</li>
+     * </ul>
+     * A method entered backwards through the exit node of a called method is only searched up to its root node, it is
+     * not left to its own callers, because the execution returns to the calling node instead. So the search runs over
+     * states (node, mayAscend), nodes reached through the exit node of a called method and their predecessors in the
+     * same method have mayAscend = false.
+     * 
+     * States are taken from a deque, weight 0 successors are added at the front and weight 1 successors at the end, so
+     * states are settled in the order of their distance and every state is expanded at most once. The distance of a
+     * node is the smaller distance of its two states. The distances are collected in arrays confined to the search.
+     */
+    private class DistanceSearch {
+
+        private final Collection<CFGNode> targetNodes;
+        private final ArrayDeque<CFGNode> toCheck = new ArrayDeque<>();
+        private final ArrayDeque<Boolean> toCheckMayAscend = new ArrayDeque<>();
+        private final BitSet settled = new BitSet(); // indexed by state 2 * node id + (mayAscend ? 1 : 0)
+        private int[] stateDistances;
+        private final CallSites callerBuffer = new CallSites();
+
+        DistanceSearch(Collection<CFGNode> targetNodes) {
+            this.targetNodes = targetNodes;
+        }
+
+        /**
+         * @return distance per node id, {@link DistanceMatrix#UNREACHABLE} for nodes, which cannot reach the target
+         */
+        int[] run() {
+            stateDistances = new int[0];
+            for (CFGNode targetNode : targetNodes) {
+                relax(targetNode, true, 0, true);
+            }
+
+            while (!toCheck.isEmpty()) {
+                CFGNode currentNode = toCheck.pollFirst();
+                boolean mayAscend = toCheckMayAscend.pollFirst();
+                int state = getState(currentNode.getId(), mayAscend);
+                if (settled.get(state)) {
                     continue;
                 }
-            } else {
-                predecessorNodes = currentNode.getPredecessors();
-            }
-
-            /* Update predecessor nodes if necessary. */
-            for (CFGNode preNode : predecessorNodes) {
-                int newDistance = currentDistance;
-                
-                /*
-                 * Check if pre-node calls another method. Then also update their distances. CAUTION: leads to
-                 * over-statement of reachability!. But do not update their distances if the preNode is the last real
-                 * node here, because then we would just get back from where we just have arrived from.
-                 * 
-                 * TODO YN: needs improvement, we want to be more precise!
-                 */
-                if (preNode.isCallerNode()) {
-
-                    Set<String> methodsCalledByPreNode = preNode.getMethodsCalled();
-                    if (!isNotLastNodeInMethod(preNode)) {
-                        methodsCalledByPreNode.remove(currentNode.getFullQualifiedMethodName());    
+                settled.set(state);
+                int currentDistance = stateDistances[state];
+
+                /* Get predecessor nodes for current node. */
+                if (currentNode.isRootNode) {
+                    if (!mayAscend) {
+                        continue;
                     }
-                    
-                    for (String callingMethod : methodsCalledByPreNode) {
-                        /*
-                         * Method must be included in analysis and it should not be the same method which we have currently
-                         * analyzed, otherwise we will receive wrong results.
-                         */
-                        if (isMethodIncludedInAnalysis(callingMethod)) {
-                            CFGNode lastNodeInCalledMethod = getLastNodeForMethod(callingMethod);
-
-                            // last node virtual, so use currentDistance and not newDistance
-                            boolean distanceUpdated = lastNodeInCalledMethod.setDistanceIfBetter(targetId, currentDistance);
-                            if (distanceUpdated) {
-                                newDistance = updateNodeAndAllPredecessorNodes(lastNodeInCalledMethod, targetId, false);
-                            }
-                        }
+                    CallSites callers = getCallSites(currentNode.getMethodId(), callerBuffer);
+                    for (int k = 0; k < callers.size; k++) {
+                        relaxPredecessor(currentNode, callers.nodes[k], true, currentDistance);
+                    }
+                } else {
+                    for (CFGNode preNode : currentNode.getPredecessors()) {
+                        relaxPredecessor(currentNode, preNode, mayAscend, currentDistance);
                     }
                 }
+            }
 
-                if (currentNode.isRootNode || !preNode.isVirtual) {
-                    newDistance += 1;
-                }
+            int[] nodeDistances = new int[stateDistances.length / 2];
+            for (int nodeId = 0; nodeId < nodeDistances.length; nodeId++) {
+                nodeDistances[nodeId] = Math.min(stateDistances[getState(nodeId, false)],
+                        stateDistances[getState(nodeId, true)]);
+            }
+            return nodeDistances;
+        }
 
-                boolean distanceUpdated = preNode.setDistanceIfBetter(targetId, newDistance);
-                if (distanceUpdated) {
-                    toCheck.add(preNode);
+        private void relaxPredecessor(CFGNode currentNode, CFGNode preNode, boolean mayAscend, int currentDistance) {
+            if (preNode.isCallerNode()) {
+                int skippedMethodId = -1;
+                if (!isNotLastNodeInMethod(preNode)) {
+                    skippedMethodId = currentNode.getMethodId();
+                }
+                for (int calledMethod : preNode.getCalledMethodIds()) {
+                    if (calledMethod != skippedMethodId && isMethodIncludedInAnalysis(calledMethod)) {
+                        // last node virtual, so the distance stays the same
+                        relax(getLastNodeForMethod(calledMethod), false, currentDistance, true);
+                    }
                 }
             }
+
+            if (currentNode.isRootNode) {
+                relax(preNode, true, currentDistance + 1, false);
+            } else if (!preNode.isVirtual) {
+                relax(preNode, mayAscend, currentDistance + 1, false);
+            } else {
+                relax(preNode, mayAscend, currentDistance, true);
+            }
         }
 
-        return lastDistance;
+        private int getState(int nodeId, boolean mayAscend) {
+            return 2 * nodeId + (mayAscend ? 1 : 0);
+        }
+
+        private void relax(CFGNode node, boolean mayAscend, int distance, boolean sameDistance) {
+            int nodeId = node.getId();
+            if (getState(nodeId, true) >= stateDistances.length) {
+                /* In lazy mode CFGs are added during the search. */
+                int length = stateDistances.length;
+                stateDistances = Arrays.copyOf(stateDistances, 2 * Math.max(getNodeCount(), nodeId + 1));
+                Arrays.fill(stateDistances, length, stateDistances.length, DistanceMatrix.UNREACHABLE);
+            }
+            /* The state, which may ascend, reaches everything the other state reaches. */
+            if (!mayAscend && stateDistances[getState(nodeId, true)] <= distance) {
+                return;
+            }
+            int state = getState(nodeId, mayAscend);
+            if (settled.get(state) || stateDistances[state] <= distance) {
+                return;
+            }
+            stateDistances[state] = distance;
+            if (sameDistance) {
+                toCheck.addFirst(node);
+                toCheckMayAscend.addFirst(mayAscend);
+            } else {
+                toCheck.addLast(node);
+                toCheckMayAscend.addLast(mayAscend);
+            }
+        }
     }
 
     public Set<CFGNode> getCallers(String localTargetMethod) {
-        Set<CFGNode> callingNodes = callerCache.get(localTargetMethod);
-        if (callingNodes == null) {
-            callingNodes = new HashSet<>();
-            /* Iterate all cfg and search for direct invocations. */
+        int localTargetMethodId = MethodSymbolTable.getGlobal().getId(localTargetMethod);
+        if (localTargetMethodId == -1) {
+            return Collections.emptySet(); // never interned, so no CFG calls it
+        }
+        return getCallers(localTargetMethodId);
+    }
+
+    /**
+     * Gets all nodes of other methods, which call the given method. The returned set is a read-only snapshot.
+     */
+    public Set<CFGNode> getCallers(int localTargetMethodId) {
+        CallSites callers = getCallSites(localTargetMethodId, new CallSites());
+        return callers.size == 0 ? Collections.<CFGNode> emptySet() : callers.snapshot();
+    }
+
+    /**
+     * Gets the call sites of the given method. In eager mode the shared call sites are returned, which do not change
+     * anymore and are read without locking. In lazy mode CFGs are added concurrently, so the current array and size are
+     * copied into the given buffer under the lock.
+     */
+    private CallSites getCallSites(int localTargetMethodId, CallSites buffer) {
+        if (methodIndex == null) {
+            CallSites[] callSites = callSitesBySymbol;
+            if (callSites == null) {
+                callSites = indexCallSites();
+            }
+            if (localTargetMethodId < callSites.length && callSites[localTargetMethodId] != null) {
+                return callSites[localTargetMethodId];
+            }
+            return CallSites.NONE;
+        }
+
+        /* In lazy mode build all CFGs, which might call the target method, they are indexed when added. */
+        boolean built;
+        synchronized (this) {
+            if (potentialCallersBuilt == null) {
+                potentialCallersBuilt = new BitSet();
+            }
+            built = potentialCallersBuilt.get(localTargetMethodId);
+        }
+        if (!built) {
+            String localTargetMethod = MethodSymbolTable.getGlobal().getName(localTargetMethodId);
+            for (String potentialCaller : methodIndex.getPotentialCallers(localTargetMethod)) {
+                getCFG(potentialCaller);
+            }
+        }
+
+        synchronized (this) {
+            if (!built) {
+                potentialCallersBuilt.set(localTargetMethodId);
+            }
+            buildCallerCache();
+            CallSites callingNodes = callerCache.get(localTargetMethodId);
+            if (callingNodes == null) {
+                return CallSites.NONE;
+            }
+            buffer.nodes = callingNodes.nodes;
+            buffer.size = callingNodes.size;
+            return buffer;
+        }
+    }
+
+    /**
+     * Builds the call sites indexed by method symbol id in eager mode, where no CFGs are added anymore.
+     */
+    private synchronized CallSites[] indexCallSites() {
+        if (callSitesBySymbol == null) {
+            buildCallerCache();
+            final CallSites[] callSites = new CallSites[MethodSymbolTable.getGlobal().size()];
+            callerCache.forEach(new IntObjectMap.EntryConsumer<CallSites>() {
+                @Override
+                public void accept(int calledMethodId, CallSites callers) {
+                    callSites[calledMethodId] = callers;
+                }
+            });
+            callSitesBySymbol = callSites;
+        }
+        return callSitesBySymbol;
+    }
+
+    private synchronized void buildCallerCache() {
+        if (callerCache == null) {
+            callerCache = new IntObjectMap<>();
             for (CFG cfg : cfgMap.values()) {
-                /* Skip the cfg for target method */
-                if (cfg.getMethodName().equals(localTargetMethod)) {
-                    continue;
+                indexCallers(cfg);
+            }
+        }
+    }
+
+    /**
+     * Append-only list of the call sites of one method. The array and size of a snapshot stay valid while further call
+     * sites are added, e.g. when CFGs are built lazily during the distance calculation.
+     */
+    private static class CallSites {
+
+        static final CallSites NONE = new CallSites();
+
+        private CFGNode[] nodes = new CFGNode[2];
+        private int size;
+
+        void add(CFGNode node) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * size);
+            }
+            nodes[size++] = node;
+        }
+
+        Set<CFGNode> snapshot() {
+            final CFGNode[] snapshotNodes = nodes;
+            final int snapshotSize = size;
+            return new AbstractSet<CFGNode>() {
+
+                @Override
+                public Iterator<CFGNode> iterator() {
+                    return Arrays.asList(snapshotNodes).subList(0, snapshotSize).iterator();
                 }
-                /* Get all nodes in the current cfg, which call the target method. */
-                Set<Integer> invocationNodes = cfg.getInvocationNodesByTargetMethod(localTargetMethod);
-                if (invocationNodes != null) {
-                    for (Integer nodeId : invocationNodes) {
-                        CFGNode caller = cfg.getNodeById(nodeId);
-                        callingNodes.add(caller);
-                    }
+
+                @Override
+                public int size() {
+                    return snapshotSize;
                 }
-            }
+            };
         }
-        return callingNodes;
     }
 
     public CFGNode getRootNodeForCurrentMethod(String fullQualifiedMethodName) {
-        CFG cfg = cfgMap.get(fullQualifiedMethodName);
+        CFG cfg = getCFG(fullQualifiedMethodName);
         if (cfg == null) {
             throw new RuntimeException("Unknown method: " + fullQualifiedMethodName);
         }
         return cfg.getRootNode();
     }
 
+    public CFGNode getLastNodeForMethod(int methodId) {
+        CFG cfg = getCFG(methodId);
+        if (cfg == null) {
+            throw new RuntimeException("Unknown method: " + MethodSymbolTable.getGlobal().getName(methodId));
+        }
+        return cfg.getExitNode();
+    }
+
     public CFGNode getLastNodeForMethod(String fullQualifiedMethodName) {
-        CFG cfg = cfgMap.get(fullQualifiedMethodName);
+        CFG cfg = getCFG(fullQualifiedMethodName);
         if (cfg == null) {
             throw new RuntimeException("Unknown method: " + fullQualifiedMethodName);
         }
@@ -180,7 +907,7 @@ public class CFGAnalysis implements Serializable {
 
     public CFGNode getNodeByMethodAndSourceLine(String fullQualifiedMethodName, int sourceLineNumber,
             boolean muteExceptionForUnknownMethod) {
-        CFG cfg = cfgMap.get(fullQualifiedMethodName);
+        CFG cfg = getCFG(fullQualifiedMethodName);
         if (cfg == null) {
             if (muteExceptionForUnknownMethod) {
                 return null;
@@ -211,11 +938,44 @@ public class CFGAnalysis implements Serializable {
     }
 
     protected boolean isMethodIncludedInAnalysis(String fullQualifiedMethodName) {
+        if (methodIndex != null && methodIndex.contains(fullQualifiedMethodName)) {
+            return true;
+        }
         return cfgMap.get(fullQualifiedMethodName) != null;
     }
 
+    protected boolean isMethodIncludedInAnalysis(int methodId) {
+        BitSet included = includedMethodIds;
+        if (included == null) {
+            included = indexIncludedMethods();
+        }
+        return included.get(methodId);
+    }
+
+    /**
+     * Collects the symbol ids of all CFGs and, in lazy mode, of all methods of the source. CFGs built later are
+     * contained in the source, so the ids never change afterwards.
+     */
+    private synchronized BitSet indexIncludedMethods() {
+        if (includedMethodIds == null) {
+            BitSet included = new BitSet();
+            for (CFG cfg : cfgMap.values()) {
+                if (cfg != null) {
+                    included.set(cfg.getMethodId());
+                }
+            }
+            if (methodIndex != null) {
+                for (String method : methodIndex.getMethods()) {
+                    included.set(MethodSymbolTable.getGlobal().intern(method));
+                }
+            }
+            includedMethodIds = included;
+        }
+        return includedMethodIds;
+    }
+
     protected boolean isNotLastNodeInMethod(CFGNode node) {
-        CFG cfg = cfgMap.get(node.getFullQualifiedMethodName());
+        CFG cfg = getCFG(node.getMethodId());
         if (node.isVirtual) {
             return node.getId() != cfg.getExitNodeId();
         } else {
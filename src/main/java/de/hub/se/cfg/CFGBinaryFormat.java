@@ -0,0 +1,504 @@
+package de.hub.se.cfg;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary file format for a {@link CFGAnalysis}. All ints are written as unsigned LEB128 varints (signed values
+ * zigzag encoded), all strings are written once into a string table and referenced by index. The file is read and
+ * written through a buffered file channel in a single sequential pass without recursion.
+ *
+ * <pre>
+ * file      := MAGIC version strings analysis cfgs distances
+ * strings   := count (byteLength utf8Bytes)*
+ * analysis  := nodeCount edgeCount skippedCount (string)* targetCount (method:string line)*
+ * cfgs      := count cfg*
+ * cfg       := method:string firstNodeId nodeCount node* firstEdgeId edgeCount edge* branchCount (node pos)*
+ *              lineCount (offsetDelta line)* edgeCoverageCount (edge count)* nodeCoverageCount (node count)*
+ * node      := idDelta flags startOffset length startLine+1 endLine+1 callCount (method:string)*
+ * edge      := idDelta predecessor successor choice
+ * distances := offHeap targetCount (targetNodeId nodeCount (distance+1)*)*
+ * </pre>
+ *
+ * Node and edge ids are stored as difference to the id of the preceding node (edge) plus one, nodes and edges within
+ * a CFG are referenced by their position. Unreachable distances are stored as 0.
+ *
+ */
+public final class CFGBinaryFormat {
+
+    public static final int MAGIC = 0x43464741; // "CFGA"
+    public static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int FLAG_VIRTUAL = 1;
+    private static final int FLAG_ROOT = 2;
+
+    private CFGBinaryFormat() {
+    }
+
+    /**
+     * Writes the analysis with all CFGs built so far to the given file.
+     */
+    public static void write(CFGAnalysis cfga, Path file) throws IOException {
+        List<CFG> cfgs;
+        Set<String> skipped;
+        Set<CFGTarget> targets;
+        int nodeCount;
+        int edgeCount;
+        synchronized (cfga) {
+            cfgs = new ArrayList<>(cfga.cfgMap.values());
+            skipped = new HashSet<>(cfga.skippedFilesDuringAnalysis);
+            targets = new HashSet<>(cfga.targets);
+            nodeCount = cfga.nodeCount;
+            edgeCount = cfga.edgeCount;
+        }
+        Collections.sort(cfgs, (a, b) -> Integer.compare(a.nodes.get(0).getId(), b.nodes.get(0).getId()));
+
+        /* Collect the string table. */
+        StringTable strings = new StringTable();
+        for (String skippedFile : skipped) {
+            strings.add(skippedFile);
+        }
+        for (CFGTarget target : targets) {
+            strings.add(target.getMethod());
+        }
+        for (CFG cfg : cfgs) {
+            strings.addCFG(cfg);
+        }
+
+        try (Output out = new Output(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))) {
+            out.writeRawInt(MAGIC);
+            out.writeVarInt(VERSION);
+
+            writeStrings(out, strings);
+
+            out.writeVarInt(nodeCount);
+            out.writeVarInt(edgeCount);
+            out.writeVarInt(skipped.size());
+            for (String skippedFile : skipped) {
+                out.writeVarInt(strings.indexOf(skippedFile));
+            }
+            out.writeVarInt(targets.size());
+            for (CFGTarget target : targets) {
+                out.writeVarInt(strings.indexOf(target.getMethod()));
+                out.writeSignedVarInt(target.getSourceLineNumber());
+            }
+
+            out.writeVarInt(cfgs.size());
+            for (CFG cfg : cfgs) {
+                writeCFG(out, cfg, strings);
+            }
+
+            DistanceMatrix distances = cfga.getDistanceMatrix();
+            out.writeVarInt(distances.isOffHeap() ? 1 : 0);
+            int[] targetIds = distances.getTargetIds();
+            out.writeVarInt(targetIds.length);
+            for (int targetId : targetIds) {
+                out.writeVarInt(targetId);
+                out.writeVarInt(nodeCount);
+                for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+                    int distance = distances.get(targetId, nodeId);
+                    out.writeVarInt(distance == DistanceMatrix.UNREACHABLE ? 0 : distance + 1);
+                }
+            }
+        }
+    }
+
+    static void writeStrings(Output out, StringTable strings) throws IOException {
+        out.writeVarInt(strings.list.size());
+        for (String string : strings.list) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length);
+            out.writeBytes(bytes);
+        }
+    }
+
+    static String[] readStrings(Input in) throws IOException {
+        String[] strings = new String[in.readVarInt()];
+        for (int k = 0; k < strings.length; k++) {
+            strings[k] = new String(in.readBytes(in.readVarInt()), StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    static void writeCFG(Output out, CFG cfg, StringTable strings) throws IOException {
+        MethodSymbolTable symbols = MethodSymbolTable.getGlobal();
+        out.writeVarInt(strings.indexOf(cfg.getMethodName()));
+
+        int previousId = cfg.nodes.get(0).getId();
+        out.writeVarInt(previousId);
+        out.writeVarInt(cfg.nodes.size());
+        IntIntMap localIndices = new IntIntMap(cfg.nodes.size());
+        for (int i = 0; i < cfg.nodes.size(); i++) {
+            CFGNode node = cfg.nodes.get(i);
+            localIndices.put(node.getId(), i);
+            out.writeSignedVarInt(node.getId() - previousId - (i == 0 ? 0 : 1));
+            previousId = node.getId();
+            out.writeVarInt((node.isVirtual() ? FLAG_VIRTUAL : 0) | (node.isRootNode() ? FLAG_ROOT : 0));
+            out.writeVarInt(node.getStartOffset());
+            out.writeSignedVarInt(node.getEndOffset() - node.getStartOffset());
+            out.writeVarInt(node.getStartSourceLineNumber() + 1);
+            out.writeVarInt(node.getEndSourceLineNumber() + 1);
+            int[] calledMethodIds = node.getCalledMethodIds();
+            out.writeVarInt(calledMethodIds.length);
+            for (int calledMethodId : calledMethodIds) {
+                out.writeVarInt(strings.indexOf(symbols.getName(calledMethodId)));
+            }
+        }
+
+        previousId = cfg.edges.isEmpty() ? 0 : cfg.edges.get(0).getId();
+        out.writeVarInt(previousId);
+        out.writeVarInt(cfg.edges.size());
+        final IntIntMap edgeIndices = new IntIntMap(cfg.edges.size());
+        for (int k = 0; k < cfg.edges.size(); k++) {
+            CFGEdge edge = cfg.edges.get(k);
+            edgeIndices.put(edge.getId(), k);
+            out.writeSignedVarInt(edge.getId() - previousId - (k == 0 ? 0 : 1));
+            previousId = edge.getId();
+            out.writeVarInt(localIndices.get(edge.getPredecessorId(), -1));
+            out.writeVarInt(localIndices.get(edge.getSuccessorId(), -1));
+            out.writeSignedVarInt(edge.getChoice());
+        }
+
+        writeIdMap(out, cfg.nodeBranchMap, localIndices);
+        LineNumberIndex lineNumberIndex = cfg.getLineNumberIndex();
+        int lineCount = lineNumberIndex == null ? 0 : lineNumberIndex.getEntryCount();
+        out.writeVarInt(lineNumberIndex == null ? 0 : lineCount + 1);
+        int previousOffset = 0;
+        for (int entry = 0; entry < lineCount; entry++) {
+            out.writeVarInt(lineNumberIndex.getEntryStartOffset(entry) - previousOffset);
+            previousOffset = lineNumberIndex.getEntryStartOffset(entry);
+            out.writeVarInt(lineNumberIndex.getEntryLine(entry));
+        }
+        writeIdMap(out, cfg.edgeCoverageMap, edgeIndices);
+        writeIdMap(out, cfg.nodeCoverageMap, localIndices);
+    }
+
+    /**
+     * Writes a map keyed by node (edge) id, the keys are replaced by the position of the node (edge). The entries are
+     * written in the order of the positions, so the output does not depend on the layout of the map.
+     */
+    private static void writeIdMap(Output out, IntIntMap map, final IntIntMap positions) throws IOException {
+        final long[] entries = new long[map.size()];
+        map.forEach(new IntIntMap.EntryConsumer() {
+            private int count;
+
+            @Override
+            public void accept(int id, int value) {
+                entries[count++] = ((long) positions.get(id, -1) << 32) | (value & 0xFFFFFFFFL);
+            }
+        });
+        Arrays.sort(entries);
+        out.writeVarInt(entries.length);
+        for (long entry : entries) {
+            out.writeVarInt((int) (entry >>> 32));
+            out.writeSignedVarInt((int) entry);
+        }
+    }
+
+    /**
+     * Reads an analysis from the given file.
+     */
+    public static CFGAnalysis read(Path file) throws IOException {
+        try (Input in = new Input(FileChannel.open(file, StandardOpenOption.READ))) {
+            if (in.readRawInt() != MAGIC) {
+                throw new IOException("Not a CFG file: " + file);
+            }
+            int version = in.readVarInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported CFG file version " + version + ": " + file);
+            }
+
+            String[] strings = readStrings(in);
+
+            int nodeCount = in.readVarInt();
+            int edgeCount = in.readVarInt();
+            int skippedCount = in.readVarInt();
+            Set<String> skipped = new HashSet<>();
+            for (int k = 0; k < skippedCount; k++) {
+                skipped.add(strings[in.readVarInt()]);
+            }
+            int targetCount = in.readVarInt();
+            Set<CFGTarget> targets = new HashSet<>();
+            for (int k = 0; k < targetCount; k++) {
+                String method = strings[in.readVarInt()];
+                targets.add(new CFGTarget(method, in.readSignedVarInt()));
+            }
+
+            int cfgCount = in.readVarInt();
+            Map<String, CFG> cfgMap = new HashMap<>();
+            for (int k = 0; k < cfgCount; k++) {
+                CFG cfg = readCFG(in, strings);
+                cfgMap.put(cfg.getMethodName(), cfg);
+            }
+
+            DistanceMatrix distances = new DistanceMatrix(in.readVarInt() != 0);
+            int distanceTargetCount = in.readVarInt();
+            for (int k = 0; k < distanceTargetCount; k++) {
+                int targetId = in.readVarInt();
+                int[] nodeDistances = new int[in.readVarInt()];
+                for (int nodeId = 0; nodeId < nodeDistances.length; nodeId++) {
+                    int distance = in.readVarInt();
+                    nodeDistances[nodeId] = distance == 0 ? DistanceMatrix.UNREACHABLE : distance - 1;
+                }
+                distances.ensureNodeCount(targetId, nodeDistances.length);
+                distances.merge(targetId, nodeDistances);
+            }
+
+            return new CFGAnalysis(cfgMap, skipped, targets, nodeCount, edgeCount, distances);
+        }
+    }
+
+    static CFG readCFG(Input in, String[] strings) throws IOException {
+        MethodSymbolTable symbols = MethodSymbolTable.getGlobal();
+        String method = strings[in.readVarInt()];
+        CFG cfg = new CFG(method);
+
+        int nodeId = in.readVarInt();
+        CFGNode[] nodes = new CFGNode[in.readVarInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodeId += in.readSignedVarInt() + (i == 0 ? 0 : 1);
+            int flags = in.readVarInt();
+            int startOffset = in.readVarInt();
+            int endOffset = startOffset + in.readSignedVarInt();
+            int startLine = in.readVarInt() - 1;
+            int endLine = in.readVarInt() - 1;
+            CFGNode node = new CFGNode(nodeId, startOffset, endOffset, method, startLine, endLine);
+            if ((flags & FLAG_VIRTUAL) != 0) {
+                cfg.addVirtualNode(node, (flags & FLAG_ROOT) != 0);
+            } else {
+                cfg.addNode(node);
+            }
+            int callCount = in.readVarInt();
+            for (int k = 0; k < callCount; k++) {
+                int calledMethodId = symbols.intern(strings[in.readVarInt()]);
+                node.addCall(calledMethodId);
+                cfg.addCall(nodeId, calledMethodId);
+            }
+            nodes[i] = node;
+        }
+
+        int edgeId = in.readVarInt();
+        CFGEdge[] edges = new CFGEdge[in.readVarInt()];
+        for (int k = 0; k < edges.length; k++) {
+            edgeId += in.readSignedVarInt() + (k == 0 ? 0 : 1);
+            int predecessor = in.readVarInt();
+            int successor = in.readVarInt();
+            CFGEdge edge = new CFGEdge(nodes[successor].getId(), nodes[predecessor].getId(), in.readSignedVarInt());
+            edge.edgeId = edgeId;
+            cfg.edges.add(edge);
+            edges[k] = edge;
+        }
+
+        int branchCount = in.readVarInt();
+        for (int k = 0; k < branchCount; k++) {
+            int node = in.readVarInt();
+            cfg.addBranch(nodes[node].getId(), in.readSignedVarInt());
+        }
+        int lineCount = in.readVarInt() - 1;
+        if (lineCount >= 0) {
+            int[] startOffsets = new int[lineCount];
+            int[] lines = new int[lineCount];
+            int offset = 0;
+            for (int entry = 0; entry < lineCount; entry++) {
+                offset += in.readVarInt();
+                startOffsets[entry] = offset;
+                lines[entry] = in.readVarInt();
+            }
+            cfg.setLineNumberIndex(new LineNumberIndex(startOffsets, lines));
+        }
+        int edgeCoverageCount = in.readVarInt();
+        for (int k = 0; k < edgeCoverageCount; k++) {
+            int edge = in.readVarInt();
+            cfg.edgeCoverageMap.put(edges[edge].getId(), in.readSignedVarInt());
+        }
+        int nodeCoverageCount = in.readVarInt();
+        for (int k = 0; k < nodeCoverageCount; k++) {
+            int node = in.readVarInt();
+            cfg.nodeCoverageMap.put(nodes[node].getId(), in.readSignedVarInt());
+        }
+
+        cfg.freeze();
+        return cfg;
+    }
+
+    /**
+     * Strings in the order of their first occurrence.
+     */
+    static class StringTable {
+
+        final List<String> list = new ArrayList<>();
+        final Map<String, Integer> indices = new HashMap<>();
+
+        void add(String string) {
+            if (!indices.containsKey(string)) {
+                indices.put(string, list.size());
+                list.add(string);
+            }
+        }
+
+        /**
+         * Adds the method name and the names of all methods called in the CFG.
+         */
+        void addCFG(CFG cfg) {
+            add(cfg.getMethodName());
+            for (CFGNode node : cfg.nodes) {
+                for (int calledMethodId : node.getCalledMethodIds()) {
+                    add(MethodSymbolTable.getGlobal().getName(calledMethodId));
+                }
+            }
+        }
+
+        int indexOf(String string) {
+            return indices.get(string);
+        }
+    }
+
+    /**
+     * Buffered varint writer on a channel.
+     */
+    static class Output implements AutoCloseable {
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void writeRawInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void writeVarInt(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeSignedVarInt(int value) throws IOException {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Buffered varint reader on a channel.
+     */
+    static class Input implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Unexpected end of CFG file");
+                }
+            }
+            buffer.flip();
+        }
+
+        int readRawInt() throws IOException {
+            ensure(4);
+            return buffer.getInt();
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                ensure(1);
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in CFG file");
+        }
+
+        int readSignedVarInt() throws IOException {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), length - offset);
+                buffer.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+}
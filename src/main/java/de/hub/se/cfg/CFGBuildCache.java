@@ -0,0 +1,183 @@
+package de.hub.se.cfg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache for the CFGs of single classes. Every class is stored in its own file named by the SHA-256 hash of the
+ * class bytes, so unchanged classes can be loaded instead of rebuilt. An index maps every class entry to the hash of
+ * its last build, which is used to detect and remove stale files.
+ *
+ */
+public class CFGBuildCache {
+
+    public static final String INDEX_FILE_NAME = "index.properties";
+    public static final String ENTRY_FILE_SUFFIX = ".cfg";
+
+    /* Increase whenever the cached data changes, older cache files are then treated as stale. */
+    private static final int FORMAT_VERSION = 5;
+
+    private final Path folder;
+
+    /* Maps class entry (as passed to the builder) to the hash of its class bytes. */
+    private final Map<String, String> index = new ConcurrentHashMap<>();
+
+    /**
+     * Cached build result for one class.
+     */
+    static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String className;
+        final boolean skipped;
+        final Map<String, CFG> cfgs;
+
+        Entry(String className, boolean skipped, Map<String, CFG> cfgs) {
+            this.className = className;
+            this.skipped = skipped;
+            this.cfgs = cfgs;
+        }
+    }
+
+    /**
+     * Opens the cache in the given folder, the folder is created if necessary.
+     */
+    public CFGBuildCache(String folderPath) {
+        this.folder = Paths.get(folderPath);
+        Path indexFile = folder.resolve(INDEX_FILE_NAME);
+        if (Files.exists(indexFile)) {
+            Properties properties = new Properties();
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(indexFile))) {
+                properties.load(in);
+            } catch (IOException e) {
+                System.err.println("Error reading CFG cache index, starting with empty cache: " + indexFile);
+                e.printStackTrace();
+            }
+            for (String entry : properties.stringPropertyNames()) {
+                index.put(entry, properties.getProperty(entry));
+            }
+        }
+    }
+
+    /**
+     * Computes the content hash for the given class bytes.
+     */
+    public static String hash(byte[] classBytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(classBytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Path getEntryFile(String hash) {
+        return folder.resolve(hash + ENTRY_FILE_SUFFIX);
+    }
+
+    /**
+     * Loads the cached build result for the given class entry.
+     *
+     * @return null if there is no valid cached result for the given hash
+     */
+    Entry load(String classEntry, String hash) {
+        Path file = getEntryFile(hash);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !hash.equals(in.readUTF())) {
+                return null;
+            }
+            Entry entry = (Entry) in.readObject();
+            index.put(classEntry, hash);
+            return entry;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            /* Stale or corrupted file, will be overwritten by the rebuild. */
+            System.err.println("Ignoring unreadable CFG cache file: " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the build result for the given class entry.
+     */
+    void store(String classEntry, String hash, Entry entry) {
+        Path file = getEntryFile(hash);
+        try {
+            Files.createDirectories(folder);
+            Path tmpFile = Files.createTempFile(folder, hash, ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(hash);
+                out.writeObject(entry);
+            }
+            try {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            index.put(classEntry, hash);
+        } catch (IOException e) {
+            System.err.println("Error writing CFG cache file: " + file);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the index and removes all cache files, which are not referenced by any class entry anymore.
+     */
+    public void save() {
+        Path indexFile = folder.resolve(INDEX_FILE_NAME);
+        try {
+            Files.createDirectories(folder);
+            Properties properties = new Properties();
+            properties.putAll(index);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(indexFile))) {
+                properties.store(out, "CFG build cache index: class entry = content hash");
+            }
+
+            Set<String> referencedFiles = new HashSet<>();
+            for (String hash : index.values()) {
+                referencedFiles.add(hash + ENTRY_FILE_SUFFIX);
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*" + ENTRY_FILE_SUFFIX)) {
+                for (Path file : files) {
+                    if (!referencedFiles.contains(file.getFileName().toString())) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing CFG cache index: " + indexFile);
+            e.printStackTrace();
+        }
+    }
+
+}
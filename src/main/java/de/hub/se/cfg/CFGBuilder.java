@@ -1,10 +1,19 @@
 package de.hub.se.cfg;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.apache.bcel.Repository;
 import org.apache.bcel.generic.*;
+import org.apache.bcel.util.ClassPath;
+import org.apache.bcel.util.ClassPathRepository;
 
 import org.apache.bcel.classfile.*;
 
@@ -19,29 +28,55 @@ public class CFGBuilder {
 
     private String className;
 
+    /* Repository used to look up classes by name, null means BCEL's global Repository. */
+    private org.apache.bcel.util.Repository repository;
+
     Map<String, CFG> cfgMap = new HashMap<String, CFG>();
 
     private JavaClass javaClass;
     private Method[] methods;
-    private ConstantPoolGen CPG;
-    private TreeSet<InstructionHandle> leaders;
-    private TreeSet<InstructionHandle> ends;
-    private TreeSet<InstructionHandle> calls;
-    private TreeSet<InstructionHandle> branches;
+    private BytecodeFrontEnd frontEnd;
+    /* Instruction properties, indexed by bytecode offset. */
+    private BitSet leaders = new BitSet();
+    private BitSet ends = new BitSet();
+    private BitSet calls = new BitSet();
+    private BitSet branches = new BitSet();
+
+    /* Basic blocks of the current method, sorted by offset. */
+    private int[] blockStarts = new int[0];
+    private int[] blockEnds = new int[0];
+    private int blockCount;
 
     private static final boolean DEBUG = false;
 
-    MethodGen mg;
+    /* Creates the front end for new builders, BCEL is the reference implementation. */
+    private static volatile Supplier<BytecodeFrontEnd> frontEndFactory = BcelFrontEnd::new;
 
     /*************************************************************************
      * default constructor.
      */
     public CFGBuilder() {
-        Comparator<Object> c = new IHandleComparator();
-        leaders = new TreeSet<>(c);
-        ends = new TreeSet<>(c);
-        calls = new TreeSet<>(c);
-        branches = new TreeSet<>(c);
+        this.frontEnd = frontEndFactory.get();
+    }
+
+    /**
+     * Sets the factory for the front end of all builders created afterwards, e.g. ClassFileFrontEnd::new.
+     */
+    public static void setDefaultFrontEnd(Supplier<BytecodeFrontEnd> factory) {
+        frontEndFactory = factory;
+    }
+
+    public void setFrontEnd(BytecodeFrontEnd frontEnd) {
+        this.frontEnd = frontEnd;
+    }
+
+    /**
+     * Creates a builder that looks up classes in the given repository instead of BCEL's global one. BCEL's global
+     * Repository is not thread-safe, so every builder running in parallel needs its own repository.
+     */
+    public CFGBuilder(org.apache.bcel.util.Repository repository) {
+        this();
+        this.repository = repository;
     }
 
     /**
@@ -53,7 +88,11 @@ public class CFGBuilder {
      */
     public boolean parseClass(String className, Set<String> skipped) throws Exception {
         try {
-            javaClass = Repository.lookupClass(className);
+            if (repository == null) {
+                javaClass = Repository.lookupClass(className);
+            } else {
+                javaClass = repository.loadClass(className);
+            }
         } catch (ClassNotFoundException e) {
             // Maybe it's an absolute (or otherwise qualified) path
             File f = new File(className);
@@ -63,6 +102,43 @@ public class CFGBuilder {
             javaClass = new ClassParser(className).parse();
         }
 
+        return initClass(skipped);
+    }
+
+    /**
+     * Parses the class from the given class file bytes.
+     * 
+     * @param classBytes
+     * @param fileName
+     *            - name of the class file, only used for error messages
+     * @return true for successful parsing, otherwise false
+     * @throws Exception
+     */
+    public boolean parseClass(byte[] classBytes, String fileName, Set<String> skipped) throws Exception {
+        javaClass = new ClassParser(new ByteArrayInputStream(classBytes), fileName).parse();
+        return initClass(skipped);
+    }
+
+    /**
+     * Reads the bytes of the class file, the class is looked up like in {@link #parseClass(String, Set)}.
+     */
+    public byte[] readClassBytes(String className) throws Exception {
+        org.apache.bcel.util.Repository repo = repository == null ? Repository.getRepository() : repository;
+        if (repo.getClassPath() != null) {
+            try {
+                return repo.getClassPath().getBytes(className);
+            } catch (IOException e) {
+                // Maybe it's an absolute (or otherwise qualified) path
+            }
+        }
+        File f = new File(className);
+        if (!f.exists()) {
+            throw new Exception("Cannot find class: " + className);
+        }
+        return Files.readAllBytes(f.toPath());
+    }
+
+    private boolean initClass(Set<String> skipped) {
         if (javaClass.isInterface()) {
             // throw new Exception("Cannot build graphs " + "for interface");
             System.out.println("We cannot build CFG for interface: " + javaClass.getClassName());
@@ -71,7 +147,7 @@ public class CFGBuilder {
         }
 
         this.className = javaClass.getClassName();
-        CPG = new ConstantPoolGen(javaClass.getConstantPool());
+        frontEnd.startClass(javaClass);
         methods = javaClass.getMethods();
         // if (methods.length == 0) {
         // throw new Exception("Error loading class");
@@ -95,13 +171,20 @@ public class CFGBuilder {
             return null;
         }
         reset();
-        this.mg = new MethodGen(methods[methodIndex], className, CPG);
         String completeMethodName = CFGUtility.getCompleteMethodName(className, methods[methodIndex]);
         return completeMethodName;
     }
 
+    /**
+     * Gets the MethodGen of the last built method.
+     * 
+     * @return null if the front end does not use BCEL's MethodGen
+     */
     public MethodGen getMethodGen() {
-        return mg;
+        if (frontEnd instanceof BcelFrontEnd) {
+            return ((BcelFrontEnd) frontEnd).getMethodGen();
+        }
+        return null;
     }
 
     /**
@@ -128,11 +211,14 @@ public class CFGBuilder {
         cfg = new CFG(completeMethodName);
         cfgMap.put(completeMethodName, cfg);
 
-        MethodGen mg = new MethodGen(methods[methodIndex], className, CPG);
-        formNodes(cfg, mg.getInstructionList(), mg.getLineNumberTable(CPG));
-        formEdges(cfg, pendingInference);
+        MethodBytecode code = frontEnd.decode(methods[methodIndex]);
+        LineNumberIndex lineNumberIndex = new LineNumberIndex(code.lineNumberTable);
+        cfg.setLineNumberIndex(lineNumberIndex);
+        formNodes(cfg, code, lineNumberIndex);
+        formEdges(cfg, code, pendingInference);
+        cfg.freeze();
         checkBranchInstruction(cfg);
-        checkCalls(cfg);
+        checkCalls(cfg, code);
 
         return cfg;
     }
@@ -189,6 +275,37 @@ public class CFGBuilder {
         return cfgMap;
     }
 
+    /**
+     * Gets the names of all methods of the parsed class, for which a CFG can be built.
+     */
+    public List<String> getBuildableMethodNames() {
+        List<String> methodNames = new ArrayList<>();
+        for (Method m : methods) {
+            if (!m.isAbstract() && !m.isNative()) {
+                methodNames.add(CFGUtility.getCompleteMethodName(className, m));
+            }
+        }
+        return methodNames;
+    }
+
+    /**
+     * Gets the names of all methods referenced in the constant pool of the parsed class, i.e. all methods which might
+     * be invoked by this class.
+     */
+    public Set<String> getReferencedMethodNames() {
+        Set<String> methodNames = new HashSet<>();
+        ConstantPool cp = javaClass.getConstantPool();
+        for (Constant c : cp.getConstantPool()) {
+            if (c instanceof ConstantMethodref || c instanceof ConstantInterfaceMethodref) {
+                ConstantCP ref = (ConstantCP) c;
+                ConstantNameAndType nameAndType = (ConstantNameAndType) cp.getConstant(ref.getNameAndTypeIndex());
+                methodNames.add(CFGUtility.getFullQualifiedMethodName(ref.getClass(cp), nameAndType.getName(cp),
+                        nameAndType.getSignature(cp)));
+            }
+        }
+        return methodNames;
+    }
+
     /**
      * reset data structures
      */
@@ -197,201 +314,209 @@ public class CFGBuilder {
         ends.clear();
         calls.clear();
         branches.clear();
+        blockCount = 0;
     }
 
     /**
-     * Compute the nodes
+     * Compute the nodes. Leaders, ends, calls and branches are marked in bitsets indexed by bytecode offset, the basic
+     * blocks are then stored as sorted arrays of start and end offsets.
      */
-    private void formNodes(CFG cfg, InstructionList il, LineNumberTable lineNumberTable) {
-        InstructionHandle ih, target, prev_ih, next_ih;
-        Instruction insn;
-        String methodClass;
-
-        leaders.add(il.getStart());
-        for (ih = il.getStart(); ih != null; ih = ih.getNext()) {
-            if (calls.contains(ih) && (leaders.contains(ih) || ends.contains(ih))) {
-                continue;
-            }
+    private void formNodes(CFG cfg, MethodBytecode code, LineNumberIndex lineNumberIndex) {
+        int target, prev, next;
 
-            insn = ih.getInstruction();
-            if (DEBUG) {
-                System.out.println(insn.toString(true));
+        leaders.set(code.getFirstOffset());
+        for (int pos = code.getFirstOffset(); pos >= 0; pos = code.getNextOffset(pos)) {
+            if (code.isBranch(pos)) {
+                branches.set(pos);
             }
 
-            if (insn instanceof BranchInstruction) {
-                branches.add(ih);
+            switch (code.kinds[pos]) {
+            case MethodBytecode.GOTO:
+            case MethodBytecode.IF:
+                ends.set(pos);
 
-                if ((insn instanceof GotoInstruction) || (insn instanceof IfInstruction)) {
-                    ends.add(ih);
+                // target
+                target = code.targets[pos];
+                leaders.set(target);
 
-                    // target
-                    target = ((BranchInstruction) insn).getTarget();
-                    leaders.add(target);
+                // instruction prior to target
+                prev = code.getPreviousOffset(target);
+                if (prev >= 0) {
+                    ends.set(prev);
+                }
 
-                    // instruction prior to target
-                    prev_ih = target.getPrev();
-                    if (prev_ih != null) {
-                        ends.add(prev_ih);
-                    }
+                // instruction after branch
+                next = code.getNextOffset(pos);
+                if (next >= 0) {
+                    leaders.set(next);
+                }
+                break;
 
-                    // instruction after branch
-                    next_ih = ih.getNext();
-                    if (next_ih != null) {
-                        leaders.add(ih.getNext());
-                    }
-                } else if (insn instanceof Select) {
-                    Select selectInstr = (Select) insn;
-                    ends.add(ih);
-
-                    // default target
-                    target = selectInstr.getTarget();
-                    leaders.add(target);
-
-                    // instruction before default target
-                    prev_ih = target.getPrev();
-                    if (prev_ih != null) {
-                        ends.add(prev_ih);
-                    }
+            case MethodBytecode.SELECT:
+                ends.set(pos);
 
-                    // case targets
-                    InstructionHandle[] targets = selectInstr.getTargets();
-                    for (int k = 0; k < targets.length; k++) {
-                        leaders.add(targets[k]);
-                        prev_ih = targets[k].getPrev();
-                        if (prev_ih != null) {
-                            ends.add(prev_ih);
-                        }
+                // case targets, followed by default target
+                for (int caseTarget : code.switchTargets[pos]) {
+                    leaders.set(caseTarget);
+                    prev = code.getPreviousOffset(caseTarget);
+                    if (prev >= 0) {
+                        ends.set(prev);
                     }
+                }
 
-                    // instruction immediately following
-                    leaders.add(ih.getNext());
+                // instruction immediately following
+                next = code.getNextOffset(pos);
+                if (next >= 0) {
+                    leaders.set(next);
                 }
-            } else if (insn instanceof InvokeInstruction) {
-                InvokeInstruction invokeInstr = (InvokeInstruction) insn;
-                methodClass = invokeInstr.getReferenceType(CPG).toString();
+                break;
+
+            case MethodBytecode.INVOKE:
                 if (DEBUG) {
-                    System.out.println("instruction: " + methodClass + " " + invokeInstr.getMethodName(CPG));
+                    System.out.println("instruction: " + code.invokedMethods[pos]);
                 }
-                if ((methodClass.indexOf("java.lang.System") != -1) && invokeInstr.getMethodName(CPG).equals("exit")) {
-                    // System.exit
-                    ends.add(ih);
-                    leaders.add(ih.getNext());
-                } else {
-                    // Add to the call list
-                    calls.add(ih);
-                }
-            } else if (insn instanceof ReturnInstruction) {
-                ends.add(ih);
-                if (ih.getNext() != null) {
-                    leaders.add(ih.getNext());
+                // Add to the call list
+                calls.set(pos);
+                break;
+
+            case MethodBytecode.EXIT:
+            case MethodBytecode.RETURN:
+                ends.set(pos);
+                next = code.getNextOffset(pos);
+                if (next >= 0) {
+                    leaders.set(next);
                 }
+                break;
+
+            default:
+                break;
             }
         }
 
         // TODO: Athrow
         // TODO: RET
 
-        ends.add(il.getEnd());
+        ends.set(code.getLastOffset());
+
+        /* Pair leaders and ends in offset order to the basic blocks. */
+        blockCount = Math.min(leaders.cardinality(), ends.cardinality());
+        if (blockStarts.length < blockCount) {
+            blockStarts = new int[blockCount];
+            blockEnds = new int[blockCount];
+        }
+        int leader = leaders.nextSetBit(0);
+        int end = ends.nextSetBit(0);
+        for (int k = 0; k < blockCount; k++) {
+            blockStarts[k] = leader;
+            blockEnds[k] = end;
+            leader = leaders.nextSetBit(leader + 1);
+            end = ends.nextSetBit(end + 1);
+        }
+
+        /* Reserve the ids for all nodes of this cfg at once, so that they are consecutive. */
+        int nextNodeId = CFGNode.reserveNodeIDs(blockCount + 2);
 
         // virtual entry node,
-        cfg.addVirtualNode(new CFGNode(0, 0, cfg.getMethodName(), -1, -1), true);
+        cfg.addVirtualNode(new CFGNode(nextNodeId++, 0, 0, cfg.getMethodName(), -1, -1), true);
 
         // actual nodes
-        Iterator<InstructionHandle> leadersIt = leaders.iterator();
-        Iterator<InstructionHandle> endIt = ends.iterator();
-        while (leadersIt.hasNext() && endIt.hasNext()) {
-            InstructionHandle startHandle = leadersIt.next();
-            InstructionHandle endHandle = endIt.next();
-
-            /* Get all source line numbers for between the handles. */
-            int firstHandledLineNumber = lineNumberTable.getSourceLine(startHandle.getPosition());
-            int lastHandledLineNumber = firstHandledLineNumber;
-            for (int i = startHandle.getPosition() + 1; i <= endHandle.getPosition(); i++) {
-                int currentLineNumber = lineNumberTable.getSourceLine(i);
-                if (currentLineNumber < firstHandledLineNumber) {
-                    firstHandledLineNumber = currentLineNumber;
-                    continue;
-                }
-                if (currentLineNumber > lastHandledLineNumber) {
-                    lastHandledLineNumber = currentLineNumber;
-                }
-            }
+        for (int k = 0; k < blockCount; k++) {
+            int startPosition = blockStarts[k];
+            int endPosition = blockEnds[k];
+
+            /* Get min and max source line numbers between the handles. */
+            int firstHandledLineNumber = lineNumberIndex.getMinSourceLine(startPosition, endPosition);
+            int lastHandledLineNumber = lineNumberIndex.getMaxSourceLine(startPosition, endPosition);
 
             /*
              * Create new node, use min and max calculation for sourcecode line because they might not be in order.
              */
-            CFGNode node = new CFGNode(startHandle.getPosition(), endHandle.getPosition(), cfg.getMethodName(),
+            CFGNode node = new CFGNode(nextNodeId++, startPosition, endPosition, cfg.getMethodName(),
                     firstHandledLineNumber, lastHandledLineNumber);
             cfg.addNode(node);
         }
 
         // virtual exit node
-        InstructionHandle endHandle = (InstructionHandle) ends.last();
-        int offset = endHandle.getPosition();
-        CFGNode virtualExitNode = new CFGNode(offset, offset, cfg.getMethodName(), -1, -1);
+        int offset = ends.length() - 1;
+        CFGNode virtualExitNode = new CFGNode(nextNodeId, offset, offset, cfg.getMethodName(), -1, -1);
         cfg.addVirtualNode(virtualExitNode, false);
 
     }
 
     /**
-     * Computes the edges between basic blocks
+     * Binary search over the sorted block start offsets.
+     * 
+     * @return index of the basic block containing the given offset, -1 if the offset is not part of any block
      */
-    private void formEdges(CFG cfg, List<Object> pendingInference) {
-        int targetOffset = 0;
+    private int findBlock(int offset) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (blockStarts[middle] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (high < 0 || offset > blockEnds[high]) {
+            return -1;
+        }
+        return high;
+    }
 
-        int nodeId = cfg.getFirstRealNodeId();
+    /**
+     * Gets the id of the node, which starts at the given offset.
+     */
+    private int getNodeIdByStartOffset(CFG cfg, int offset) {
+        int block = findBlock(offset);
+        if (block < 0 || blockStarts[block] != offset) {
+            throw new RuntimeException("No basic block starts at offset " + offset + " in " + cfg.getMethodName());
+        }
+        return cfg.getFirstRealNodeId() + block;
+    }
+
+    /**
+     * Computes the edges between basic blocks
+     */
+    private void formEdges(CFG cfg, MethodBytecode code, List<Object> pendingInference) {
+        int firstRealNodeId = cfg.getFirstRealNodeId();
 
         // edge between entry block and first actual block
-        cfg.addEdge(new CFGEdge(nodeId, cfg.getEntryBlockNodeId(), -1));
+        cfg.addEdge(new CFGEdge(firstRealNodeId, cfg.getEntryBlockNodeId(), -1));
 
-        for (InstructionHandle ih : ends) {
-            Instruction insn = ih.getInstruction();
+        for (int k = 0; k < blockCount; k++) {
+            int nodeId = firstRealNodeId + k;
+            int pos = blockEnds[k];
 
-            if (insn instanceof Select) { // Switch
-                Select selectInstr = (Select) insn;
-                InstructionHandle[] targets = selectInstr.getTargets();
-                int[] matches = selectInstr.getMatchs();
-                if (matches.length != targets.length) {
-                    throw new ClassFormatError("Invalid switch instruction: " + ih.toString().trim());
-                }
-                CFGNode node;
+            switch (code.kinds[pos]) {
+            case MethodBytecode.SELECT: // Switch
+                int[] targets = code.switchTargets[pos];
                 for (int j = 0; j < targets.length; j++) {
-                    node = (CFGNode) cfg.nodeOffsetMap.get(targets[j].getPosition());
-                    cfg.addEdge(new CFGEdge(node.getId(), nodeId, j));
+                    /* The default target is the last one, its choice is the number of cases. */
+                    cfg.addEdge(new CFGEdge(getNodeIdByStartOffset(cfg, targets[j]), nodeId, j));
                 }
-                node = (CFGNode) cfg.nodeOffsetMap.get(selectInstr.getTarget().getPosition());
-                cfg.addEdge(new CFGEdge(node.getId(), nodeId, matches.length));
-            }
+                break;
 
-            else if (insn instanceof GotoInstruction) { // GOTO
-                BranchInstruction branchInstr = (BranchInstruction) insn;
-                InstructionHandle target = branchInstr.getTarget();
-                targetOffset = target.getPosition();
-                CFGNode successor = (CFGNode) cfg.nodeOffsetMap.get(targetOffset);
-                cfg.addEdge(new CFGEdge(successor.getId(), nodeId, -1));
-            }
+            case MethodBytecode.GOTO: // GOTO
+                cfg.addEdge(new CFGEdge(getNodeIdByStartOffset(cfg, code.targets[pos]), nodeId, -1));
+                break;
 
-            else if (insn instanceof IfInstruction) { // IF
-                CFGNode targetNode;
+            case MethodBytecode.IF: // IF
                 // Target - true
-                targetOffset = ((IfInstruction) insn).getTarget().getPosition();
-                targetNode = (CFGNode) cfg.nodeOffsetMap.get(targetOffset);
-                cfg.addEdge(new CFGEdge(targetNode.getId(), nodeId, 1));// true branch
+                cfg.addEdge(new CFGEdge(getNodeIdByStartOffset(cfg, code.targets[pos]), nodeId, 1));// true branch
                 // Target - false
                 cfg.addEdge(new CFGEdge(nodeId + 1, nodeId, 0));// false branch
-            }
+                break;
 
-            else if ((insn instanceof ReturnInstruction) || // RETURN
-                    ((insn instanceof INVOKESTATIC) && // system.exit()
-                            (((INVOKESTATIC) insn).getReferenceType(CPG).toString().indexOf("java.lang.System") != -1)
-                            && (((INVOKESTATIC) insn).getMethodName(CPG).equals("exit")))) {
+            case MethodBytecode.RETURN: // RETURN
+            case MethodBytecode.EXIT: // system.exit()
                 cfg.addEdge(new CFGEdge(cfg.getExitNodeId(), nodeId, -1));
-            }
+                break;
 
-            else { // regular flow
+            default: // regular flow
                 cfg.addEdge(new CFGEdge(nodeId + 1, nodeId, -1));
             }
-            nodeId++;
         }
 
     }
@@ -400,78 +525,42 @@ public class CFGBuilder {
      * Find branch instructions and maps to their corresponding node ids
      */
     private void checkBranchInstruction(CFG cfg) {
-        int nodeId = cfg.getFirstRealNodeId();
-        int exitNodeId = cfg.getExitNodeId();
-        for (InstructionHandle ih : branches) {
-            int pos = ih.getPosition();
-            while (nodeId < exitNodeId) {
-                CFGNode node = cfg.getNodeById(nodeId);
-                if (node.getStartOffset() <= pos && pos <= node.getEndOffset()) {
-                    if (DEBUG) {
-                        System.out.println("Branch instruction pos: " + ih.getPosition());
-                        System.out.println("Node id: " + nodeId);
-                    }
-                    cfg.addBranch(nodeId, pos);
-                    break;
-                }
-                nodeId++;
-            }
-            if (nodeId == exitNodeId) {
+        int firstRealNodeId = cfg.getFirstRealNodeId();
+        for (int pos = branches.nextSetBit(0); pos >= 0; pos = branches.nextSetBit(pos + 1)) {
+            int block = findBlock(pos);
+            if (block < 0) {
                 System.err.println("Error in corrsponding branches to nodes.");
+                continue;
             }
+            if (DEBUG) {
+                System.out.println("Branch instruction pos: " + pos);
+                System.out.println("Node id: " + (firstRealNodeId + block));
+            }
+            cfg.addBranch(firstRealNodeId + block, pos);
         }
     }
 
     /**
      * Checks all function calls to build the map between calls and nodes
      */
-    private void checkCalls(CFG cfg) {
-        int nodeId = cfg.getFirstRealNodeId();
-        int exitNodeId = cfg.getExitNodeId();
-        for (InstructionHandle ih : calls) {
-            Instruction instr = ih.getInstruction();
-            InvokeInstruction invokeInstr = (InvokeInstruction) instr;
-            String methodClass = invokeInstr.getReferenceType(CPG).toString();
-            String methodName = invokeInstr.getMethodName(CPG);
-            String fullQualifiedMethodName = CFGUtility.getFullQualifiedMethodName(methodClass, methodName,
-                    invokeInstr.getSignature(CPG));
-
-            if (DEBUG) {
-                System.out.println("Invoke instruction: " + methodClass + " " + invokeInstr.getMethodName(CPG));
-            }
+    private void checkCalls(CFG cfg, MethodBytecode code) {
+        int firstRealNodeId = cfg.getFirstRealNodeId();
+        for (int pos = calls.nextSetBit(0); pos >= 0; pos = calls.nextSetBit(pos + 1)) {
+            String fullQualifiedMethodName = code.invokedMethods[pos];
 
-            int pos = ih.getPosition();
-            while (nodeId < exitNodeId) {
-                CFGNode node = cfg.getNodeById(nodeId);
-                if (node.getStartOffset() <= pos && pos <= node.getEndOffset()) {
-                    if (DEBUG) {
-                        System.out.println("Invoke instruction: " + methodClass + " " + invokeInstr.getMethodName(CPG));
-                        System.out.println("Node id: " + nodeId);
-                    }
-                    node.addCall(fullQualifiedMethodName);
-                    cfg.addCall(nodeId, fullQualifiedMethodName);
-                    break;
-                }
-                nodeId++;
-            }
-            if (nodeId == exitNodeId) {
+            int block = findBlock(pos);
+            if (block < 0) {
                 System.err.println("Error in corrsponding calls to nodes.");
+                continue;
             }
-        }
-    }
-
-    /**
-     * Comparator for InstructionHandle objects.
-     */
-    private class IHandleComparator implements Comparator<Object> {
-        public int compare(Object o1, Object o2) {
-            if (o1 == o2)
-                return 0;
-            if (((InstructionHandle) o1).getPosition() < ((InstructionHandle) o2).getPosition()) {
-                return -1;
-            } else {
-                return 1;
+            int nodeId = firstRealNodeId + block;
+            if (DEBUG) {
+                System.out.println("Invoke instruction: " + fullQualifiedMethodName);
+                System.out.println("Node id: " + nodeId);
             }
+            int calledMethodId = MethodSymbolTable.getGlobal().intern(fullQualifiedMethodName);
+            cfg.getNodeById(nodeId).addCall(calledMethodId);
+            cfg.addCall(nodeId, calledMethodId);
         }
     }
 
@@ -558,4 +647,374 @@ public class CFGBuilder {
 
         return new CFGAnalysis(map, skipped);
     }
+
+    /**
+     * generate CFG for the specified set of classes using the given number of worker threads. Classes are distributed
+     * on a fork-join pool, every worker uses its own builder and repository. The resulting CFGs are the same as for the
+     * sequential construction, only the node and edge ids depend on the scheduling.
+     * 
+     * @param classes
+     * @param classesToSkip
+     * @param additionalClasses
+     *            - comma-separated list of additional classes, can be null
+     * @param parallelism
+     *            - number of worker threads, values <= 1 fall back to the sequential construction
+     * @return CFGAnalysis
+     */
+    public static CFGAnalysis genCFGForClasses(Set<String> classes, Set<String> classesToSkip,
+            String additionalClasses, int parallelism) {
+        return genCFGForClasses(classes, classesToSkip, additionalClasses, parallelism, null);
+    }
+
+    /**
+     * generate CFG for the specified set of classes, only classes whose bytes changed since the last build are parsed
+     * again, the CFGs of all other classes are loaded from the given cache.
+     * 
+     * @param classes
+     * @param classesToSkip
+     * @param additionalClasses
+     *            - comma-separated list of additional classes, can be null
+     * @param parallelism
+     *            - number of worker threads, values <= 1 mean sequential construction
+     * @param cache
+     *            - build cache, can be null
+     * @return CFGAnalysis
+     */
+    public static CFGAnalysis genCFGForClasses(Set<String> classes, Set<String> classesToSkip,
+            String additionalClasses, int parallelism, CFGBuildCache cache) {
+        if (parallelism <= 1 && cache == null) {
+            return genCFGForClasses(classes, classesToSkip, additionalClasses);
+        }
+
+        List<String> entries = new ArrayList<>();
+        for (String entry : classes) {
+            if (classesToSkip.contains(entry)) {
+                System.out.println("Skip CFG construction for class: " + entry);
+                continue;
+            }
+            entries.add(entry);
+        }
+        if (additionalClasses != null) {
+            entries.addAll(Arrays.asList(additionalClasses.split(",")));
+        }
+
+        Map<String, CFG> map;
+        Set<String> skipped;
+        if (parallelism <= 1) {
+            map = new HashMap<>();
+            skipped = new HashSet<>();
+            CFGBuilder cfgb = new CFGBuilder();
+            for (String entry : entries) {
+                cfgb.buildClassEntry(entry, null, skipped, map, cache);
+            }
+        } else {
+            map = new ConcurrentHashMap<>();
+            skipped = ConcurrentHashMap.newKeySet();
+            /* Resolve classes on the class path of the global repository, like the sequential build. */
+            ClassPath globalClassPath = Repository.getRepository().getClassPath();
+            final ClassPath classPath = globalClassPath != null ? globalClassPath : ClassPath.SYSTEM_CLASS_PATH;
+            ThreadLocal<CFGBuilder> builders = ThreadLocal
+                    .withInitial(() -> new CFGBuilder(new ClassPathRepository(classPath)));
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new ParallelBuildTask(entries, 0, entries.size(), builders, map, skipped, cache));
+            } finally {
+                pool.shutdown();
+            }
+            map = new HashMap<>(map);
+            skipped = new HashSet<>(skipped);
+        }
+
+        if (cache != null) {
+            cache.save();
+        }
+
+        return new CFGAnalysis(map, skipped);
+    }
+
+    /**
+     * generate an analysis for the specified set of classes, which builds the CFG of a method only when it is accessed
+     * for the first time. Up front the classes are only parsed to index their methods.
+     * 
+     * @param classes
+     * @param classesToSkip
+     * @param additionalClasses
+     *            - comma-separated list of additional classes, can be null
+     * @return CFGAnalysis
+     */
+    public static CFGAnalysis genLazyCFGForClasses(Set<String> classes, Set<String> classesToSkip,
+            String additionalClasses) {
+        Set<String> skipped = new HashSet<>();
+        CFGMethodIndex methodIndex = indexClasses(classes, classesToSkip, additionalClasses, skipped);
+        return new CFGAnalysis(methodIndex, skipped);
+    }
+
+    /**
+     * generate CFG only for the methods, which are transitively invoked by the given entry methods. The classes are
+     * parsed to index their methods, but no CFG is built for a method that is not reachable. Calls are followed by
+     * the invoked method name as collected in {@link #checkCalls(CFG, MethodBytecode)}, additionally the static initializer of each
+     * reached class is included.
+     * 
+     * @param classes
+     * @param classesToSkip
+     * @param additionalClasses
+     *            - comma-separated list of additional classes, can be null
+     * @param entryMethods
+     *            - full qualified names of the entry methods, e.g. the driver's main method
+     * @return CFGAnalysis
+     */
+    public static CFGAnalysis genCFGForEntryPoints(Set<String> classes, Set<String> classesToSkip,
+            String additionalClasses, Set<String> entryMethods) {
+        Set<String> skipped = new HashSet<>();
+        CFGMethodIndex methodIndex = indexClasses(classes, classesToSkip, additionalClasses, skipped);
+
+        Map<String, CFG> map = new HashMap<>();
+        Deque<String> toBuild = new ArrayDeque<>();
+        for (String entryMethod : entryMethods) {
+            if (!methodIndex.contains(entryMethod)) {
+                throw new RuntimeException("Unknown method: " + entryMethod);
+            }
+            toBuild.add(entryMethod);
+        }
+
+        while (!toBuild.isEmpty()) {
+            String method = toBuild.poll();
+            if (map.containsKey(method)) {
+                continue;
+            }
+            CFG cfg = methodIndex.build(method);
+            map.put(method, cfg);
+
+            String staticInitializer = getStaticInitializerName(method);
+            if (methodIndex.contains(staticInitializer) && !map.containsKey(staticInitializer)) {
+                toBuild.add(staticInitializer);
+            }
+            for (String invokedMethod : cfg.getInvokedMethods()) {
+                if (methodIndex.contains(invokedMethod) && !map.containsKey(invokedMethod)) {
+                    toBuild.add(invokedMethod);
+                }
+            }
+        }
+        System.out.println("Built CFG for " + map.size() + " of " + methodIndex.getMethods().size()
+                + " methods reachable from the entry methods.");
+
+        return new CFGAnalysis(map, skipped);
+    }
+
+    /**
+     * Gets the name of the static initializer for the class declaring the given method.
+     */
+    private static String getStaticInitializerName(String fullQualifiedMethodName) {
+        int signatureStart = fullQualifiedMethodName.indexOf('(');
+        int classEnd = fullQualifiedMethodName.lastIndexOf('.', signatureStart);
+        return CFGUtility.getFullQualifiedMethodName(fullQualifiedMethodName.substring(0, classEnd), "<clinit>",
+                "()V");
+    }
+
+    /**
+     * Parses the specified classes and indexes their methods without building any CFG.
+     */
+    private static CFGMethodIndex indexClasses(Set<String> classes, Set<String> classesToSkip,
+            String additionalClasses, Set<String> skipped) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : classes) {
+            if (classesToSkip.contains(entry)) {
+                System.out.println("Skip CFG construction for class: " + entry);
+                continue;
+            }
+            entries.add(entry);
+        }
+        if (additionalClasses != null) {
+            entries.addAll(Arrays.asList(additionalClasses.split(",")));
+        }
+
+        CFGMethodIndex methodIndex = new CFGMethodIndex();
+        CFGBuilder cfgb = new CFGBuilder();
+        for (String entry : entries) {
+            try {
+                if (cfgb.parseClass(entry, skipped)) {
+                    methodIndex.addClass(entry, cfgb.getBuildableMethodNames(), cfgb.getReferencedMethodNames());
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        return methodIndex;
+    }
+
+    /**
+     * generate CFG for all classes in the given JAR files and class directories. The class files are streamed directly
+     * into the builders, they are neither extracted nor looked up in BCEL's Repository.
+     * 
+     * @param paths
+     *            - JAR files or class directories (without package structure)
+     * @param includedPackages
+     *            - packages to include, null or empty for all packages
+     * @param skippedPackages
+     *            - packages to skip, can be null
+     * @param parallelism
+     *            - number of worker threads, values <= 1 mean sequential construction
+     * @param cache
+     *            - build cache, can be null
+     * @return CFGAnalysis
+     */
+    public static CFGAnalysis genCFGForArchives(List<String> paths, Set<String> includedPackages,
+            Set<String> skippedPackages, int parallelism, CFGBuildCache cache) {
+        ClassFileReader reader = new ClassFileReader(includedPackages, skippedPackages);
+
+        boolean sequential = parallelism <= 1;
+        Map<String, CFG> map = sequential ? new HashMap<>() : new ConcurrentHashMap<>();
+        Set<String> skipped = sequential ? new HashSet<>() : ConcurrentHashMap.newKeySet();
+        try {
+            if (sequential) {
+                CFGBuilder cfgb = new CFGBuilder();
+                for (String path : paths) {
+                    reader.read(path, (entryName, className, classBytes) -> cfgb
+                            .buildClassEntry(path + "!/" + entryName, classBytes, skipped, map, cache));
+                }
+            } else {
+                ThreadLocal<CFGBuilder> builders = ThreadLocal.withInitial(CFGBuilder::new);
+
+                /* Limit the number of class files read ahead of the workers. */
+                Semaphore readAhead = new Semaphore(parallelism * 4);
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    for (String path : paths) {
+                        reader.read(path, (entryName, className, classBytes) -> {
+                            readAhead.acquire();
+                            pool.execute(() -> {
+                                try {
+                                    builders.get().buildClassEntry(path + "!/" + entryName, classBytes, skipped, map,
+                                            cache);
+                                } finally {
+                                    readAhead.release();
+                                }
+                            });
+                        });
+                    }
+                } finally {
+                    pool.shutdown();
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        if (cache != null) {
+            cache.save();
+        }
+
+        if (sequential) {
+            return new CFGAnalysis(map, skipped);
+        }
+        return new CFGAnalysis(new HashMap<>(map), new HashSet<>(skipped));
+    }
+
+    /**
+     * Builds the CFGs for a single class entry and adds them to the given map, CFGs already contained in the map are
+     * kept. If a cache is given and contains the class bytes, the cached CFGs are used instead.
+     * 
+     * @param entry
+     *            - class name or path, also used as cache key
+     * @param classBytes
+     *            - bytes of the class file, null to look up the class by the entry
+     */
+    private void buildClassEntry(String entry, byte[] classBytes, Set<String> skipped, Map<String, CFG> map,
+            CFGBuildCache cache) {
+        setCfgMap(new HashMap<>());
+
+        boolean parsed = false;
+        String hash = null;
+        try {
+            if (cache == null) {
+                parsed = classBytes == null ? parseClass(entry, skipped) : parseClass(classBytes, entry, skipped);
+            } else {
+                if (classBytes == null) {
+                    classBytes = readClassBytes(entry);
+                }
+                hash = CFGBuildCache.hash(classBytes);
+                CFGBuildCache.Entry cached = cache.load(entry, hash);
+                if (cached != null) {
+                    if (cached.skipped) {
+                        skipped.add(cached.className);
+                        return;
+                    }
+                    for (CFG cfg : cached.cfgs.values()) {
+                        cfg.reassignIds();
+                        map.putIfAbsent(cfg.getMethodName(), cfg);
+                    }
+                    return;
+                }
+                parsed = parseClass(classBytes, entry, skipped);
+                if (!parsed) {
+                    cache.store(entry, hash,
+                            new CFGBuildCache.Entry(javaClass.getClassName(), true, new HashMap<String, CFG>()));
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        /* Skip class files that could not be parsed, e.g. interface. */
+        if (!parsed) {
+            return;
+        }
+
+        try {
+            buildCFGForAll();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        if (cache != null) {
+            cache.store(entry, hash, new CFGBuildCache.Entry(className, false, cfgMap));
+        }
+        for (Map.Entry<String, CFG> cfgEntry : cfgMap.entrySet()) {
+            map.putIfAbsent(cfgEntry.getKey(), cfgEntry.getValue());
+        }
+    }
+
+    /**
+     * Fork-join task, which splits the list of classes until single classes remain. Idle workers steal the remaining
+     * halves from busy ones.
+     */
+    private static class ParallelBuildTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> entries;
+        private final int from;
+        private final int to;
+        private final ThreadLocal<CFGBuilder> builders;
+        private final Map<String, CFG> map;
+        private final Set<String> skipped;
+        private final CFGBuildCache cache;
+
+        ParallelBuildTask(List<String> entries, int from, int to, ThreadLocal<CFGBuilder> builders,
+                Map<String, CFG> map, Set<String> skipped, CFGBuildCache cache) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.builders = builders;
+            this.map = map;
+            this.skipped = skipped;
+            this.cache = cache;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParallelBuildTask(entries, from, middle, builders, map, skipped, cache),
+                        new ParallelBuildTask(entries, middle, to, builders, map, skipped, cache));
+            } else if (to > from) {
+                builders.get().buildClassEntry(entries.get(from), null, skipped, map, cache);
+            }
+        }
+    }
 }
@@ -0,0 +1,534 @@
+package de.hub.se.cfg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only store of the CFG nodes and distances of an analysis, which is memory mapped and queried in place. Several
+ * processes, e.g. fuzzer workers, opening the same file share its pages through the OS page cache instead of each
+ * holding a deserialized copy of the analysis.
+ *
+ * All values are little endian ints, every section starts at a multiple of 4:
+ *
+ * <pre>
+ * header    := MAGIC VERSION methodCount nodeCount targetCount offsetCount lineCount nameBytes
+ *              methodsPos:long namesPos:long nodesPos:long offsetsPos:long linesPos:long targetsPos:long
+ *              distancesPos:long
+ * methods   := (namePos nameLength firstNodeId nodeCount offsetsStart codeLength linesStart lineCount)*
+ *              sorted by UTF-8 name bytes
+ * names     := UTF-8 bytes of all method names, padded to a multiple of 4
+ * nodes     := (methodIndex startOffset endOffset startLine endLine flags)*          indexed by node id
+ * offsets   := node id per method and bytecode offset, -1 if the offset is in no block
+ * lines     := (sourceLine nodeId)* per method, sorted by source line
+ * targets   := targetNodeId*
+ * distances := one row of nodeCount distances per target, {@link DistanceMatrix#UNREACHABLE} if unreachable
+ * </pre>
+ *
+ * The lines of a method map every source line to the node, which the analysis resolves for a target on that line, so
+ * targets are looked up in the store exactly like in {@link CFGAnalysis#getNodeByMethodAndSourceLine(String, int)}.
+ *
+ */
+public class CFGDistanceStore {
+
+    public static final String STORE_FILE_NAME = "cfg.store";
+
+    public static final int MAGIC = 0x43464753; // "CFGS"
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 4 * 8 + 8 * 7;
+    private static final int METHOD_INTS = 8;
+    private static final int NODE_INTS = 6;
+
+    private static final int FLAG_VIRTUAL = 1;
+    private static final int FLAG_ROOT = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int methodCount;
+    private final int nodeCount;
+    private final int targetCount;
+
+    private final IntBuffer methods;
+    private final ByteBuffer names;
+    private final IntBuffer nodes;
+    private final IntBuffer offsets;
+    private final IntBuffer lines;
+    private final IntBuffer targets;
+    private final IntBuffer[] distances; // one mapped row per target
+    private final IntIntMap targetRows; // target node id to row
+
+    private CFGDistanceStore(FileChannel channel) throws IOException {
+        ByteBuffer header = map(channel, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a CFG store file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported CFG store version " + version);
+        }
+        methodCount = header.getInt();
+        nodeCount = header.getInt();
+        targetCount = header.getInt();
+        int offsetCount = header.getInt();
+        int lineCount = header.getInt();
+        int nameBytes = header.getInt();
+        long methodsPos = header.getLong();
+        long namesPos = header.getLong();
+        long nodesPos = header.getLong();
+        long offsetsPos = header.getLong();
+        long linesPos = header.getLong();
+        long targetsPos = header.getLong();
+        long distancesPos = header.getLong();
+
+        methods = map(channel, methodsPos, 4L * METHOD_INTS * methodCount).asIntBuffer();
+        names = map(channel, namesPos, nameBytes);
+        nodes = map(channel, nodesPos, 4L * NODE_INTS * nodeCount).asIntBuffer();
+        offsets = map(channel, offsetsPos, 4L * offsetCount).asIntBuffer();
+        lines = map(channel, linesPos, 8L * lineCount).asIntBuffer();
+        targets = map(channel, targetsPos, 4L * targetCount).asIntBuffer();
+        distances = new IntBuffer[targetCount];
+        targetRows = new IntIntMap(targetCount);
+        for (int row = 0; row < targetCount; row++) {
+            distances[row] = map(channel, distancesPos + 4L * nodeCount * row, 4L * nodeCount).asIntBuffer();
+            targetRows.put(targets.get(row), row);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Opens the store file, the file can be closed by the OS as soon as it is mapped.
+     */
+    public static CFGDistanceStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new CFGDistanceStore(channel);
+        }
+    }
+
+    /**
+     * Writes the store for the analysis, in lazy mode all CFGs are built first. The file is written next to the target
+     * and moved into place, so readers never see a partially written store.
+     */
+    public static void write(CFGAnalysis cfga, Path file) throws IOException {
+        List<CFG> cfgs = new ArrayList<>(cfga.getAllIncludedCFG());
+        final List<byte[]> cfgNames = new ArrayList<>();
+        List<Integer> order = new ArrayList<>();
+        for (int k = 0; k < cfgs.size(); k++) {
+            cfgNames.add(cfgs.get(k).getMethodName().getBytes(StandardCharsets.UTF_8));
+            order.add(k);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareBytes(cfgNames.get(a), cfgNames.get(b));
+            }
+        });
+
+        int nodeCount = cfga.getNodeCount();
+        DistanceMatrix matrix = cfga.getDistanceMatrix();
+        int[] targetIds = matrix.getTargetIds();
+        int nameBytes = 0;
+        int offsetCount = 0;
+        int lineCount = 0;
+        int[][] sourceLines = new int[cfgs.size()][];
+        for (int k = 0; k < cfgs.size(); k++) {
+            offsetCount += DistanceLookup.getCodeLength(cfgs.get(k));
+            sourceLines[k] = getSourceLines(cfgs.get(k));
+            lineCount += sourceLines[k].length;
+        }
+        for (byte[] name : cfgNames) {
+            nameBytes += name.length;
+        }
+        nameBytes = (nameBytes + 3) & ~3;
+
+        long methodsPos = HEADER_SIZE;
+        long namesPos = methodsPos + 4L * METHOD_INTS * cfgs.size();
+        long nodesPos = namesPos + nameBytes;
+        long offsetsPos = nodesPos + 4L * NODE_INTS * nodeCount;
+        long linesPos = offsetsPos + 4L * offsetCount;
+        long targetsPos = linesPos + 8L * lineCount;
+        long distancesPos = targetsPos + 4L * targetIds.length;
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmpFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                Output out = new Output(channel);
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putInt(cfgs.size());
+                out.putInt(nodeCount);
+                out.putInt(targetIds.length);
+                out.putInt(offsetCount);
+                out.putInt(lineCount);
+                out.putInt(nameBytes);
+                out.putLong(methodsPos);
+                out.putLong(namesPos);
+                out.putLong(nodesPos);
+                out.putLong(offsetsPos);
+                out.putLong(linesPos);
+                out.putLong(targetsPos);
+                out.putLong(distancesPos);
+
+                /* Methods in name order, the code offsets of each method in the same order. */
+                int[] methodIndices = new int[cfgs.size()];
+                int namePos = 0;
+                int offsetsStart = 0;
+                int linesStart = 0;
+                for (int index = 0; index < order.size(); index++) {
+                    int k = order.get(index);
+                    CFG cfg = cfgs.get(k);
+                    methodIndices[k] = index;
+                    out.putInt(namePos);
+                    out.putInt(cfgNames.get(k).length);
+                    out.putInt(cfg.nodes.get(0).getId());
+                    out.putInt(cfg.getNodeCount());
+                    out.putInt(offsetsStart);
+                    out.putInt(DistanceLookup.getCodeLength(cfg));
+                    out.putInt(linesStart);
+                    out.putInt(sourceLines[k].length);
+                    namePos += cfgNames.get(k).length;
+                    offsetsStart += DistanceLookup.getCodeLength(cfg);
+                    linesStart += sourceLines[k].length;
+                }
+                for (int k : order) {
+                    out.putBytes(cfgNames.get(k));
+                }
+                for (int pos = namePos; pos < nameBytes; pos++) {
+                    out.putByte((byte) 0);
+                }
+
+                CFGNode[] nodesById = new CFGNode[nodeCount];
+                int[] nodeMethods = new int[nodeCount];
+                for (int k = 0; k < cfgs.size(); k++) {
+                    for (CFGNode node : cfgs.get(k).nodes) {
+                        nodesById[node.getId()] = node;
+                        nodeMethods[node.getId()] = methodIndices[k];
+                    }
+                }
+                for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+                    CFGNode node = nodesById[nodeId];
+                    if (node == null) {
+                        throw new IOException("Node ids of the analysis are not dense, missing node " + nodeId);
+                    }
+                    out.putInt(nodeMethods[nodeId]);
+                    out.putInt(node.getStartOffset());
+                    out.putInt(node.getEndOffset());
+                    out.putInt(node.getStartSourceLineNumber());
+                    out.putInt(node.getEndSourceLineNumber());
+                    out.putInt((node.isVirtual() ? FLAG_VIRTUAL : 0) | (node.isRootNode() ? FLAG_ROOT : 0));
+                }
+
+                for (int k : order) {
+                    CFG cfg = cfgs.get(k);
+                    int codeLength = DistanceLookup.getCodeLength(cfg);
+                    int[] offsetNodes = new int[codeLength];
+                    Arrays.fill(offsetNodes, -1);
+                    CFGNode[] realNodes = DistanceLookup.getRealNodesByOffset(cfg);
+                    for (int i = 0; i < realNodes.length; i++) {
+                        int end = i + 1 < realNodes.length ? realNodes[i + 1].getStartOffset() : codeLength;
+                        Arrays.fill(offsetNodes, realNodes[i].getStartOffset(), end, realNodes[i].getId());
+                    }
+                    for (int nodeId : offsetNodes) {
+                        out.putInt(nodeId);
+                    }
+                }
+
+                /* The node of a line is the one the analysis takes for a target on this line. */
+                for (int k : order) {
+                    CFG cfg = cfgs.get(k);
+                    for (int sourceLine : sourceLines[k]) {
+                        out.putInt(sourceLine);
+                        out.putInt(cfg.getNodesBySourceLineNumber(sourceLine).iterator().next().getId());
+                    }
+                }
+
+                for (int targetId : targetIds) {
+                    out.putInt(targetId);
+                }
+                for (int targetId : targetIds) {
+                    for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+                        out.putInt(matrix.get(targetId, nodeId));
+                    }
+                }
+                out.flush();
+            }
+            try {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Gets the source lines of the CFG, which are associated with at least one node, in ascending order.
+     */
+    private static int[] getSourceLines(CFG cfg) {
+        final int[] sourceLines = new int[cfg.nodeSourceLineMap.size()];
+        final int[] count = new int[1];
+        cfg.nodeSourceLineMap.forEach(new IntObjectMap.EntryConsumer<Set<CFGNode>>() {
+            @Override
+            public void accept(int sourceLine, Set<CFGNode> lineNodes) {
+                if (lineNodes != null && !lineNodes.isEmpty()) {
+                    sourceLines[count[0]++] = sourceLine;
+                }
+            }
+        });
+        int[] sortedLines = Arrays.copyOf(sourceLines, count[0]);
+        Arrays.sort(sortedLines);
+        return sortedLines;
+    }
+
+    /**
+     * Compares UTF-8 encoded names byte by byte, bytes are unsigned.
+     */
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    public int getMethodCount() {
+        return methodCount;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    /**
+     * Gets the node id of the target with the given index.
+     */
+    public int getTargetNodeId(int targetIndex) {
+        return targets.get(targetIndex);
+    }
+
+    /**
+     * Finds the method by a binary search over the stored names.
+     *
+     * @return method index, -1 if the method is not contained
+     */
+    public int getMethodIndex(String fullQualifiedMethodName) {
+        byte[] name = fullQualifiedMethodName.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = methodCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int c = compareName(middle, name);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compareName(int methodIndex, byte[] name) {
+        int pos = methods.get(methodIndex * METHOD_INTS);
+        int length = methods.get(methodIndex * METHOD_INTS + 1);
+        int common = Math.min(length, name.length);
+        for (int i = 0; i < common; i++) {
+            int c = (names.get(pos + i) & 0xFF) - (name[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - name.length;
+    }
+
+    public String getMethodName(int methodIndex) {
+        byte[] name = new byte[methods.get(methodIndex * METHOD_INTS + 1)];
+        ByteBuffer slice = names.duplicate();
+        slice.position(methods.get(methodIndex * METHOD_INTS));
+        slice.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the id of the virtual root node of the method.
+     */
+    public int getRootNodeId(int methodIndex) {
+        return methods.get(methodIndex * METHOD_INTS + 2);
+    }
+
+    /**
+     * Gets the id of the virtual exit node of the method.
+     */
+    public int getLastNodeId(int methodIndex) {
+        return getRootNodeId(methodIndex) + methods.get(methodIndex * METHOD_INTS + 3) - 1;
+    }
+
+    /**
+     * Gets the id of the basic block, which contains the given bytecode offset of the method.
+     *
+     * @return node id, -1 if the offset is unknown
+     */
+    public int getNodeId(int methodIndex, int offset) {
+        if (methodIndex < 0 || methodIndex >= methodCount || offset < 0
+                || offset >= methods.get(methodIndex * METHOD_INTS + 5)) {
+            return -1;
+        }
+        return offsets.get(methods.get(methodIndex * METHOD_INTS + 4) + offset);
+    }
+
+    /**
+     * Gets the node of the method, which the analysis associates with the given source line, by a binary search over
+     * the stored lines of the method.
+     *
+     * @return node id, -1 if the source line is not part of the method
+     */
+    public int getNodeByMethodAndSourceLine(int methodIndex, int sourceLineNumber) {
+        int low = methods.get(methodIndex * METHOD_INTS + 6);
+        int high = low + methods.get(methodIndex * METHOD_INTS + 7) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int sourceLine = lines.get(2 * middle);
+            if (sourceLine < sourceLineNumber) {
+                low = middle + 1;
+            } else if (sourceLine > sourceLineNumber) {
+                high = middle - 1;
+            } else {
+                return lines.get(2 * middle + 1);
+            }
+        }
+        return -1;
+    }
+
+    public int getMethodIndexOfNode(int nodeId) {
+        return nodes.get(nodeId * NODE_INTS);
+    }
+
+    public int getStartOffset(int nodeId) {
+        return nodes.get(nodeId * NODE_INTS + 1);
+    }
+
+    public int getEndOffset(int nodeId) {
+        return nodes.get(nodeId * NODE_INTS + 2);
+    }
+
+    public int getStartSourceLineNumber(int nodeId) {
+        return nodes.get(nodeId * NODE_INTS + 3);
+    }
+
+    public int getEndSourceLineNumber(int nodeId) {
+        return nodes.get(nodeId * NODE_INTS + 4);
+    }
+
+    public boolean isVirtual(int nodeId) {
+        return (nodes.get(nodeId * NODE_INTS + 5) & FLAG_VIRTUAL) != 0;
+    }
+
+    public boolean isRootNode(int nodeId) {
+        return (nodes.get(nodeId * NODE_INTS + 5) & FLAG_ROOT) != 0;
+    }
+
+    /**
+     * Gets the distance of the node to the target node.
+     *
+     * @return the distance, {@link DistanceMatrix#UNREACHABLE} if the target is not reachable or unknown
+     */
+    public int getDistance(int targetNodeId, int nodeId) {
+        int row = targetRows.get(targetNodeId, -1);
+        if (row < 0 || nodeId < 0 || nodeId >= nodeCount) {
+            return DistanceMatrix.UNREACHABLE;
+        }
+        return distances[row].get(nodeId);
+    }
+
+    /**
+     * Gets the distance of the node to the nearest target.
+     *
+     * @return the distance, {@link DistanceMatrix#UNREACHABLE} if no target is reachable
+     */
+    public int getMinDistance(int nodeId) {
+        int min = DistanceMatrix.UNREACHABLE;
+        if (nodeId >= 0 && nodeId < nodeCount) {
+            for (IntBuffer row : distances) {
+                min = Math.min(min, row.get(nodeId));
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Buffered little endian writer on a channel.
+     */
+    private static class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (byte b : bytes) {
+                putByte(b);
+            }
+        }
+    }
+
+}
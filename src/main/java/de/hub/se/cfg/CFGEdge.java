@@ -1,6 +1,7 @@
 package de.hub.se.cfg;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -13,10 +14,17 @@ public class CFGEdge implements Serializable {
 	
 	private static final long serialVersionUID = 1515201509852115253L;
 	
-	private static int globalCurrentEdgeID = 0;
+	private static final AtomicInteger globalCurrentEdgeID = new AtomicInteger();
 	public static int generateNewEdgeID() {
-		return globalCurrentEdgeID++;
+		return globalCurrentEdgeID.getAndIncrement();
 	} 
+
+	/*
+	 * Reserves count consecutive edge ids and returns the first one.
+	 */
+	public static int reserveEdgeIDs(int count) {
+		return globalCurrentEdgeID.getAndAdd(count);
+	}
 	
     protected int edgeId;
     protected int successorId; // id of the node where the edge ends
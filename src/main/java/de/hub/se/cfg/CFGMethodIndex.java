@@ -0,0 +1,120 @@
+package de.hub.se.cfg;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of all methods of the analyzed classes, used to build the CFG of a method only when it is accessed for the
+ * first time. Besides the declaring class of every method, the index records for every invoked method the classes
+ * whose constant pool references it, so that callers can be found without building all CFGs.
+ *
+ */
+public class CFGMethodIndex implements CFGSource {
+
+    /* Maps method name to the class entry (class name or path) declaring it. */
+    private final Map<String, String> methodClasses = new LinkedHashMap<>();
+
+    /* Maps class entry to its methods. */
+    private final Map<String, List<String>> classMethods = new HashMap<>();
+
+    /* Maps invoked method name to the class entries, which reference it. */
+    private final Map<String, Set<String>> referencingClasses = new HashMap<>();
+
+    /* Builders holding parsed classes with methods, whose CFG was not yet built. */
+    private final Map<String, CFGBuilder> builders = new HashMap<>();
+    private final Map<String, Integer> unbuiltMethodCount = new HashMap<>();
+
+    /**
+     * Adds the methods of a class.
+     *
+     * @param classEntry
+     *            - class name or path, used to parse the class again when a CFG is needed
+     * @param methods
+     *            - methods of the class for which a CFG can be built
+     * @param referencedMethods
+     *            - methods referenced in the constant pool of the class
+     */
+    public synchronized void addClass(String classEntry, List<String> methods, Set<String> referencedMethods) {
+        for (String method : methods) {
+            methodClasses.putIfAbsent(method, classEntry);
+        }
+        classMethods.put(classEntry, methods);
+        unbuiltMethodCount.put(classEntry, methods.size());
+        for (String referencedMethod : referencedMethods) {
+            Set<String> classes = referencingClasses.get(referencedMethod);
+            if (classes == null) {
+                classes = new HashSet<>();
+                referencingClasses.put(referencedMethod, classes);
+            }
+            classes.add(classEntry);
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String fullQualifiedMethodName) {
+        return methodClasses.containsKey(fullQualifiedMethodName);
+    }
+
+    @Override
+    public synchronized Set<String> getMethods() {
+        return new HashSet<>(methodClasses.keySet());
+    }
+
+    /**
+     * Gets all methods of classes, which might invoke the given method.
+     */
+    @Override
+    public synchronized Set<String> getPotentialCallers(String fullQualifiedMethodName) {
+        Set<String> classes = referencingClasses.get(fullQualifiedMethodName);
+        if (classes == null) {
+            return Collections.emptySet();
+        }
+        Set<String> callers = new HashSet<>();
+        for (String classEntry : classes) {
+            callers.addAll(classMethods.get(classEntry));
+        }
+        return callers;
+    }
+
+    /**
+     * Builds the CFG for the given method, the declaring class is parsed once and kept until all its CFGs are built.
+     *
+     * @return null if the method is not indexed
+     */
+    @Override
+    public synchronized CFG build(String fullQualifiedMethodName) {
+        String classEntry = methodClasses.get(fullQualifiedMethodName);
+        if (classEntry == null) {
+            return null;
+        }
+        try {
+            CFGBuilder cfgb = builders.get(classEntry);
+            if (cfgb == null) {
+                cfgb = new CFGBuilder();
+                cfgb.parseClass(classEntry, new HashSet<String>());
+                builders.put(classEntry, cfgb);
+            }
+            CFG cfg = cfgb.getCFG(fullQualifiedMethodName);
+
+            int unbuilt = unbuiltMethodCount.get(classEntry) - 1;
+            unbuiltMethodCount.put(classEntry, unbuilt);
+            if (unbuilt <= 0) {
+                builders.remove(classEntry);
+            }
+            return cfg;
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot build CFG for method: " + fullQualifiedMethodName, e);
+        }
+    }
+
+    @Override
+    public boolean providesIds() {
+        return false;
+    }
+
+}
@@ -1,10 +1,15 @@
 package de.hub.se.cfg;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -15,13 +20,19 @@ import java.util.Set;
  */
 public class CFGNode implements Serializable {
 
-	private static final long serialVersionUID = 4625833866485308480L;
-	private static int globalCurrentNodeID = 0;
+	private static final long serialVersionUID = 7265039713958128349L;
+	private static final AtomicInteger globalCurrentNodeID = new AtomicInteger();
+	private static final int[] NO_CALLS = new int[0];
 
 	protected int nodeId;
 
-	protected Set<CFGNode> successors = new HashSet<CFGNode>();
-	protected Set<CFGNode> predecessors = new HashSet<CFGNode>();
+	/* Adjacency while the owning CFG is not frozen, created on first use. */
+	protected Set<CFGNode> successors;
+	protected Set<CFGNode> predecessors;
+
+	/* Owning CFG and position in its node list, set when the CFG is frozen. The adjacency is then stored in the CFG. */
+	protected CFG cfg;
+	protected int localIndex = -1;
 	protected boolean isVirtual;
 	protected boolean isRootNode;
 
@@ -30,23 +41,35 @@ public class CFGNode implements Serializable {
 	protected int endOffset;
 
 	protected String fullQualifiedMethodName;
+	protected transient int methodId; // id of fullQualifiedMethodName in the MethodSymbolTable
 
 	// line number in source code
 	protected int startSourceLineNumber;
 	protected int endSourceLineNumber;
 
-	/* Maps target node id to distance. */
-	protected Map<Integer, Integer> distances = new HashMap<>();
+	/* Distances to the targets, owned by the CFGAnalysis this node belongs to. */
+	protected transient DistanceMatrix distances;
 	
-	protected Set<String> callsMethod = new HashSet<>();
+	/* Ids of the methods called by this node, serialized by name. */
+	protected transient int[] calledMethodIds = NO_CALLS;
 
 	/*************************************************************************
 	 * Creates a new node.
 	 */
 	public CFGNode(int startOffset, int endOffset, String fullQualifiedMethodName, int startSourceLineNumber,
 			int endSourceLineNumber) {
-		this.nodeId = generateNewNodeID();
+		this(generateNewNodeID(), startOffset, endOffset, fullQualifiedMethodName, startSourceLineNumber,
+				endSourceLineNumber);
+	}
+
+	/*************************************************************************
+	 * Creates a new node with an id previously obtained by {@link #reserveNodeIDs(int)}.
+	 */
+	public CFGNode(int nodeId, int startOffset, int endOffset, String fullQualifiedMethodName,
+			int startSourceLineNumber, int endSourceLineNumber) {
+		this.nodeId = nodeId;
 		this.fullQualifiedMethodName = fullQualifiedMethodName;
+		this.methodId = MethodSymbolTable.getGlobal().intern(fullQualifiedMethodName);
 		this.isVirtual = false;
 		this.isRootNode = false;
 		this.startOffset = startOffset;
@@ -56,7 +79,15 @@ public class CFGNode implements Serializable {
 	}
 
 	public static int generateNewNodeID() {
-		return globalCurrentNodeID++;
+		return globalCurrentNodeID.getAndIncrement();
+	}
+
+	/*
+	 * Reserves count consecutive node ids and returns the first one. The nodes of one CFG must have consecutive ids,
+	 * which does not hold if several builders draw single ids at the same time.
+	 */
+	public static int reserveNodeIDs(int count) {
+		return globalCurrentNodeID.getAndAdd(count);
 	}
 
 	/*************************************************************************
@@ -69,16 +100,28 @@ public class CFGNode implements Serializable {
 
 	public void setFullQualifiedMethodName(String fullQualifiedMethodName) {
 		this.fullQualifiedMethodName = fullQualifiedMethodName;
+		this.methodId = MethodSymbolTable.getGlobal().intern(fullQualifiedMethodName);
 	}
 
 	public String getFullQualifiedMethodName() {
 		return this.fullQualifiedMethodName;
 	}
 
+	/*************************************************************************
+	 * Gets the id of this node's method in the global MethodSymbolTable.
+	 */
+	public int getMethodId() {
+		return methodId;
+	}
+
 	/*************************************************************************
 	 * Adds a node to this node's successor list.
 	 */
 	public void addSuccessor(CFGNode n) {
+		checkNotFrozen();
+		if (successors == null) {
+			successors = new HashSet<CFGNode>();
+		}
 		successors.add(n);
 	}
 
@@ -86,13 +129,20 @@ public class CFGNode implements Serializable {
 	 * Removes a node from this node's successor list.
 	 */
 	public void removeSuccessor(CFGNode n) {
-		successors.remove(n);
+		checkNotFrozen();
+		if (successors != null) {
+			successors.remove(n);
+		}
 	}
 
 	/*************************************************************************
 	 * Adds a node to this node's predecessor list.
 	 */
 	public void addPredecessor(CFGNode n) {
+		checkNotFrozen();
+		if (predecessors == null) {
+			predecessors = new HashSet<CFGNode>();
+		}
 		predecessors.add(n);
 	}
 
@@ -100,7 +150,26 @@ public class CFGNode implements Serializable {
 	 * Removes a node from this node's predecessor list.
 	 */
 	public void removePredecessor(CFGNode n) {
-		predecessors.remove(n);
+		checkNotFrozen();
+		if (predecessors != null) {
+			predecessors.remove(n);
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (cfg != null) {
+			throw new UnsupportedOperationException("CFG is frozen, edges can only be changed via the CFG.");
+		}
+	}
+
+	/*************************************************************************
+	 * Called when the owning CFG is frozen, from now on the adjacency is read from the CFG.
+	 */
+	protected void freeze(CFG cfg, int localIndex) {
+		this.cfg = cfg;
+		this.localIndex = localIndex;
+		this.successors = null;
+		this.predecessors = null;
 	}
 
 	/*************************************************************************
@@ -135,14 +204,20 @@ public class CFGNode implements Serializable {
 	 * Gets this node's predecessors set
 	 */
 	public Set<CFGNode> getPredecessors() {
-		return predecessors;
+		if (cfg != null) {
+			return cfg.getAdjacentNodes(localIndex, false);
+		}
+		return predecessors == null ? Collections.<CFGNode> emptySet() : predecessors;
 	}
 
 	/*************************************************************************
 	 * Gets this node's successors set
 	 */
 	public Set<CFGNode> getSuccessors() {
-		return successors;
+		if (cfg != null) {
+			return cfg.getAdjacentNodes(localIndex, true);
+		}
+		return successors == null ? Collections.<CFGNode> emptySet() : successors;
 	}
 
 	/*************************************************************************
@@ -179,7 +254,7 @@ public class CFGNode implements Serializable {
 				"[" + nodeId + ", [" + startOffset + ", " + endOffset + "], "
 						+ ((startSourceLineNumber == endSourceLineNumber) ? startSourceLineNumber
 								: (startSourceLineNumber + "-" + endSourceLineNumber))
-						+ "]" + (isVirtual() ? "v" : "") + distances);
+						+ "]" + (isVirtual() ? "v" : "") + (distances == null ? "{}" : distances.toString(nodeId)));
 	}
 
 	public void setSourceLineNumber(int startLineNumber, int endLineNumber) {
@@ -195,33 +270,106 @@ public class CFGNode implements Serializable {
 		return this.endSourceLineNumber;
 	}
 
+	/*************************************************************************
+	 * Sets the distance matrix of the analysis, which stores the distances of this node.
+	 */
+	protected void setDistanceMatrix(DistanceMatrix distances) {
+		this.distances = distances;
+	}
+
+	private DistanceMatrix getDistanceMatrix() {
+		if (distances == null) {
+			throw new RuntimeException("Node " + nodeId + " does not belong to a CFGAnalysis, no distances available.");
+		}
+		return distances;
+	}
+
 	public void setDistance(int targetNodeId, int distance) {
-		distances.put(targetNodeId, distance);
+		getDistanceMatrix().set(targetNodeId, nodeId, distance);
 	}
 
 	public boolean setDistanceIfBetter(int targetNodeId, int newDistance) {
-		Integer existingDistance = distances.get(targetNodeId);
-		if (existingDistance != null && existingDistance < newDistance) {
+		DistanceMatrix matrix = getDistanceMatrix();
+		if (matrix.get(targetNodeId, nodeId) < newDistance) {
 			return false;
 		}
-		distances.put(targetNodeId, newDistance);
+		matrix.set(targetNodeId, nodeId, newDistance);
 		return true;
 	}
 
 	public Integer getDistance(int targetNodeId) {
-		return distances.get(targetNodeId);
+		int distance = getDistance(targetNodeId, DistanceMatrix.UNREACHABLE);
+		if (distance == DistanceMatrix.UNREACHABLE) {
+			return null;
+		}
+		return distance;
+	}
+
+	/*************************************************************************
+	 * Gets the distance to the target node without boxing.
+	 * 
+	 * @return the distance, noDistance if the target is not reachable from this node
+	 */
+	public int getDistance(int targetNodeId, int noDistance) {
+		if (distances == null) {
+			return noDistance;
+		}
+		int distance = distances.get(targetNodeId, nodeId);
+		return distance == DistanceMatrix.UNREACHABLE ? noDistance : distance;
 	}
 	
 	public void addCall(String method) {
-	    this.callsMethod.add(method);
+		addCall(MethodSymbolTable.getGlobal().intern(method));
 	}
-	
+
+	public void addCall(int calledMethodId) {
+		for (int id : calledMethodIds) {
+			if (id == calledMethodId) {
+				return;
+			}
+		}
+		calledMethodIds = Arrays.copyOf(calledMethodIds, calledMethodIds.length + 1);
+		calledMethodIds[calledMethodIds.length - 1] = calledMethodId;
+	}
+
 	public boolean isCallerNode() {
-	    return this.callsMethod != null;
+		return calledMethodIds.length > 0;
 	}
-	
+
+	/*************************************************************************
+	 * Gets the names of the called methods, changes to the returned set do not affect this node.
+	 */
 	public Set<String> getMethodsCalled() {
-	    return this.callsMethod;
+		Set<String> methods = new LinkedHashSet<>();
+		for (int id : calledMethodIds) {
+			methods.add(MethodSymbolTable.getGlobal().getName(id));
+		}
+		return methods;
+	}
+
+	/*************************************************************************
+	 * Gets the ids of the called methods, the returned array must not be modified.
+	 */
+	public int[] getCalledMethodIds() {
+		return calledMethodIds;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(calledMethodIds.length);
+		for (int id : calledMethodIds) {
+			out.writeObject(MethodSymbolTable.getGlobal().getName(id));
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		MethodSymbolTable symbols = MethodSymbolTable.getGlobal();
+		methodId = symbols.intern(fullQualifiedMethodName);
+		calledMethodIds = new int[in.readInt()];
+		for (int k = 0; k < calledMethodIds.length; k++) {
+			calledMethodIds[k] = symbols.intern((String) in.readObject());
+		}
 	}
 
 }
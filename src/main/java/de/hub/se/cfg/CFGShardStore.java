@@ -0,0 +1,474 @@
+package de.hub.se.cfg;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.hub.se.cfg.CFGBinaryFormat.Input;
+import de.hub.se.cfg.CFGBinaryFormat.Output;
+import de.hub.se.cfg.CFGBinaryFormat.StringTable;
+
+/**
+ * Sharded file layout of a {@link CFGAnalysis}: one shard per analyzed class with the CFGs of its methods and their
+ * distances, plus a small manifest with the analysis data, the methods of every shard and the methods they call. An
+ * analysis opened from the manifest loads a shard only when one of its CFGs is accessed for the first time, so a query
+ * like {@link CFGAnalysis#getNodeByMethodAndSourceLine(String, int)} only reads the shards it touches. Node and edge
+ * ids are stored with the CFGs and are not reassigned when a shard is loaded.
+ *
+ * All files use the varint encoding of {@link CFGBinaryFormat}:
+ *
+ * <pre>
+ * manifest  := MANIFEST_MAGIC version strings nodeCount edgeCount skippedCount (string)* targetCount (method:string line)*
+ *              offHeap distanceTargetCount (targetNodeId)* shardCount (file:string methodCount method*)*
+ * method    := method:string calleeCount (callee:string)*
+ * shard     := SHARD_MAGIC version strings cfgCount cfg* distanceTargetCount (targetNodeId (distance+1)*)*
+ * </pre>
+ *
+ * The distances in a shard are written per target for all nodes of its CFGs in order, unreachable distances are
+ * stored as 0. Every write creates shards with new unique names, the manifest is written last and moved into place
+ * atomically, so a manifest never references a shard of another write. After the move, the shards of earlier writes
+ * are deleted, an analysis opened from an earlier manifest then fails to load its remaining shards instead of reading
+ * shards with different ids. A folder must not be written by several processes at once.
+ *
+ * Loading a shard is synchronized on the store, but, like the {@link DistanceMatrix}, the opened analysis should not
+ * load shards while distances are calculated concurrently.
+ *
+ */
+public class CFGShardStore implements CFGSource {
+
+    public static final String SHARD_FOLDER_NAME = "cfg.shards";
+    public static final String MANIFEST_FILE_NAME = "manifest";
+
+    private static final String SHARD_FILE_PREFIX = "shard-";
+    private static final String SHARD_FILE_SUFFIX = ".bin";
+
+    public static final int MANIFEST_MAGIC = 0x4346474D; // "CFGM"
+    public static final int SHARD_MAGIC = 0x43464748; // "CFGH"
+    public static final int VERSION = 1;
+
+    private final Path folder;
+    private final String[] shardFiles;
+    private final DistanceMatrix distances;
+
+    /* Maps method name to the index of its shard. */
+    private final Map<String, Integer> methodShards = new LinkedHashMap<>();
+
+    /* Maps called method name to the methods calling it. */
+    private final Map<String, Set<String>> callers = new HashMap<>();
+
+    /* CFGs of loaded shards, which were not yet requested. */
+    private final Map<String, CFG> loadedCFGs = new HashMap<>();
+    private final BitSet loadedShards = new BitSet();
+
+    private CFGShardStore(Path folder, String[] shardFiles, DistanceMatrix distances) {
+        this.folder = folder;
+        this.shardFiles = shardFiles;
+        this.distances = distances;
+    }
+
+    /**
+     * Gets the name of the class declaring the given method.
+     */
+    static String getClassName(String fullQualifiedMethodName) {
+        int signatureStart = fullQualifiedMethodName.indexOf('(');
+        int nameStart = fullQualifiedMethodName.lastIndexOf('.',
+                signatureStart < 0 ? fullQualifiedMethodName.length() : signatureStart);
+        return nameStart < 0 ? fullQualifiedMethodName : fullQualifiedMethodName.substring(0, nameStart);
+    }
+
+    /**
+     * Writes the analysis with all CFGs built so far into the given folder, the shards are written in parallel.
+     *
+     * @param parallelism
+     *            - number of worker threads
+     */
+    public static void write(CFGAnalysis cfga, Path folder, int parallelism) throws IOException {
+        List<CFG> cfgs;
+        Set<String> skipped;
+        Set<CFGTarget> targets;
+        int nodeCount;
+        int edgeCount;
+        synchronized (cfga) {
+            cfgs = new ArrayList<>(cfga.cfgMap.values());
+            skipped = new HashSet<>(cfga.skippedFilesDuringAnalysis);
+            targets = new HashSet<>(cfga.targets);
+            nodeCount = cfga.nodeCount;
+            edgeCount = cfga.edgeCount;
+        }
+        DistanceMatrix distances = cfga.getDistanceMatrix();
+        int[] targetIds = distances.getTargetIds();
+
+        /* Group the CFGs by class, in the order of the class and method names. */
+        Map<String, List<CFG>> classCFGs = new TreeMap<>();
+        for (CFG cfg : cfgs) {
+            String className = getClassName(cfg.getMethodName());
+            List<CFG> shard = classCFGs.get(className);
+            if (shard == null) {
+                shard = new ArrayList<>();
+                classCFGs.put(className, shard);
+            }
+            shard.add(cfg);
+        }
+        List<List<CFG>> shards = new ArrayList<>(classCFGs.values());
+
+        /* Every write uses new shard names, so the shards of the current manifest are never overwritten. */
+        Files.createDirectories(folder);
+        List<String> shardFiles = new ArrayList<>();
+        boolean published = false;
+        try {
+            for (int k = 0; k < shards.size(); k++) {
+                Collections.sort(shards.get(k), (a, b) -> a.getMethodName().compareTo(b.getMethodName()));
+                shardFiles.add(Files.createTempFile(folder, SHARD_FILE_PREFIX + k + "-", SHARD_FILE_SUFFIX)
+                        .getFileName().toString());
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+            try {
+                pool.invoke(new WriteShardTask(folder, shards, shardFiles, distances, targetIds, 0, shards.size()));
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            } finally {
+                pool.shutdown();
+            }
+
+            writeManifest(folder, cfgs, skipped, targets, nodeCount, edgeCount, distances, targetIds, shards,
+                    shardFiles);
+            published = true;
+        } finally {
+            if (!published) {
+                for (String shardFile : shardFiles) {
+                    Files.deleteIfExists(folder.resolve(shardFile));
+                }
+            }
+        }
+
+        /* Remove the shards of earlier writes, readers of an earlier manifest fail to load them. */
+        Set<String> currentFiles = new HashSet<>(shardFiles);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder,
+                SHARD_FILE_PREFIX + "*" + SHARD_FILE_SUFFIX)) {
+            for (Path file : files) {
+                if (!currentFiles.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static void writeManifest(Path folder, List<CFG> cfgs, Set<String> skipped, Set<CFGTarget> targets,
+            int nodeCount, int edgeCount, DistanceMatrix distances, int[] targetIds, List<List<CFG>> shards,
+            List<String> shardFiles) throws IOException {
+        StringTable strings = new StringTable();
+        for (String skippedFile : skipped) {
+            strings.add(skippedFile);
+        }
+        for (CFGTarget target : targets) {
+            strings.add(target.getMethod());
+        }
+        for (String shardFile : shardFiles) {
+            strings.add(shardFile);
+        }
+        for (CFG cfg : cfgs) {
+            strings.addCFG(cfg);
+        }
+
+        Path manifest = folder.resolve(MANIFEST_FILE_NAME);
+        Path tmpFile = Files.createTempFile(folder, MANIFEST_FILE_NAME, ".tmp");
+        try {
+            try (Output out = new Output(FileChannel.open(tmpFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING))) {
+                out.writeRawInt(MANIFEST_MAGIC);
+                out.writeVarInt(VERSION);
+                CFGBinaryFormat.writeStrings(out, strings);
+
+                out.writeVarInt(nodeCount);
+                out.writeVarInt(edgeCount);
+                out.writeVarInt(skipped.size());
+                for (String skippedFile : skipped) {
+                    out.writeVarInt(strings.indexOf(skippedFile));
+                }
+                out.writeVarInt(targets.size());
+                for (CFGTarget target : targets) {
+                    out.writeVarInt(strings.indexOf(target.getMethod()));
+                    out.writeSignedVarInt(target.getSourceLineNumber());
+                }
+                out.writeVarInt(distances.isOffHeap() ? 1 : 0);
+                out.writeVarInt(targetIds.length);
+                for (int targetId : targetIds) {
+                    out.writeVarInt(targetId);
+                }
+
+                MethodSymbolTable symbols = MethodSymbolTable.getGlobal();
+                out.writeVarInt(shards.size());
+                for (int k = 0; k < shards.size(); k++) {
+                    out.writeVarInt(strings.indexOf(shardFiles.get(k)));
+                    out.writeVarInt(shards.get(k).size());
+                    for (CFG cfg : shards.get(k)) {
+                        out.writeVarInt(strings.indexOf(cfg.getMethodName()));
+                        Set<String> callees = new LinkedHashSet<>();
+                        for (CFGNode node : cfg.nodes) {
+                            for (int calledMethodId : node.getCalledMethodIds()) {
+                                callees.add(symbols.getName(calledMethodId));
+                            }
+                        }
+                        out.writeVarInt(callees.size());
+                        for (String callee : callees) {
+                            out.writeVarInt(strings.indexOf(callee));
+                        }
+                    }
+                }
+            }
+            try {
+                Files.move(tmpFile, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, manifest, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private static void writeShard(Path file, List<CFG> cfgs, DistanceMatrix distances, int[] targetIds)
+            throws IOException {
+        StringTable strings = new StringTable();
+        for (CFG cfg : cfgs) {
+            strings.addCFG(cfg);
+        }
+        try (Output out = new Output(FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))) {
+            out.writeRawInt(SHARD_MAGIC);
+            out.writeVarInt(VERSION);
+            CFGBinaryFormat.writeStrings(out, strings);
+
+            out.writeVarInt(cfgs.size());
+            for (CFG cfg : cfgs) {
+                CFGBinaryFormat.writeCFG(out, cfg, strings);
+            }
+
+            out.writeVarInt(targetIds.length);
+            for (int targetId : targetIds) {
+                out.writeVarInt(targetId);
+                for (CFG cfg : cfgs) {
+                    for (CFGNode node : cfg.nodes) {
+                        int distance = distances.get(targetId, node.getId());
+                        out.writeVarInt(distance == DistanceMatrix.UNREACHABLE ? 0 : distance + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the shards from..to - 1.
+     */
+    private static class WriteShardTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+        private final List<List<CFG>> shards;
+        private final List<String> shardFiles;
+        private final DistanceMatrix distances;
+        private final int[] targetIds;
+        private final int from;
+        private final int to;
+
+        WriteShardTask(Path folder, List<List<CFG>> shards, List<String> shardFiles, DistanceMatrix distances,
+                int[] targetIds, int from, int to) {
+            this.folder = folder;
+            this.shards = shards;
+            this.shardFiles = shardFiles;
+            this.distances = distances;
+            this.targetIds = targetIds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WriteShardTask(folder, shards, shardFiles, distances, targetIds, from, middle),
+                        new WriteShardTask(folder, shards, shardFiles, distances, targetIds, middle, to));
+            } else if (to > from) {
+                try {
+                    writeShard(folder.resolve(shardFiles.get(from)), shards.get(from), distances, targetIds);
+                } catch (IOException e) {
+                    throw new RuntimeException("Cannot write CFG shard: " + shardFiles.get(from), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the analysis written to the given folder. Only the manifest is read, the CFGs and distances of a class are
+     * loaded when one of its methods is accessed.
+     */
+    public static CFGAnalysis open(Path folder) throws IOException {
+        Path manifest = folder.resolve(MANIFEST_FILE_NAME);
+        try (Input in = new Input(FileChannel.open(manifest, StandardOpenOption.READ))) {
+            if (in.readRawInt() != MANIFEST_MAGIC) {
+                throw new IOException("Not a CFG shard manifest: " + manifest);
+            }
+            int version = in.readVarInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported CFG shard manifest version " + version + ": " + manifest);
+            }
+            String[] strings = CFGBinaryFormat.readStrings(in);
+
+            int nodeCount = in.readVarInt();
+            int edgeCount = in.readVarInt();
+            int skippedCount = in.readVarInt();
+            Set<String> skipped = new HashSet<>();
+            for (int k = 0; k < skippedCount; k++) {
+                skipped.add(strings[in.readVarInt()]);
+            }
+            int targetCount = in.readVarInt();
+            Set<CFGTarget> targets = new HashSet<>();
+            for (int k = 0; k < targetCount; k++) {
+                String method = strings[in.readVarInt()];
+                targets.add(new CFGTarget(method, in.readSignedVarInt()));
+            }
+
+            /* Add the rows in the original order, they are filled when the shards are loaded. */
+            DistanceMatrix distances = new DistanceMatrix(in.readVarInt() != 0);
+            int distanceTargetCount = in.readVarInt();
+            for (int k = 0; k < distanceTargetCount; k++) {
+                distances.ensureNodeCount(in.readVarInt(), 0);
+            }
+
+            String[] shardFiles = new String[in.readVarInt()];
+            CFGShardStore store = new CFGShardStore(folder, shardFiles, distances);
+            for (int shard = 0; shard < shardFiles.length; shard++) {
+                shardFiles[shard] = strings[in.readVarInt()];
+                int methodCount = in.readVarInt();
+                for (int k = 0; k < methodCount; k++) {
+                    String method = strings[in.readVarInt()];
+                    store.methodShards.put(method, shard);
+                    int calleeCount = in.readVarInt();
+                    for (int c = 0; c < calleeCount; c++) {
+                        String callee = strings[in.readVarInt()];
+                        Set<String> calleeCallers = store.callers.get(callee);
+                        if (calleeCallers == null) {
+                            calleeCallers = new HashSet<>();
+                            store.callers.put(callee, calleeCallers);
+                        }
+                        calleeCallers.add(method);
+                    }
+                }
+            }
+
+            return new CFGAnalysis(store, new ConcurrentHashMap<String, CFG>(), skipped, targets, nodeCount,
+                    edgeCount, distances);
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String fullQualifiedMethodName) {
+        return methodShards.containsKey(fullQualifiedMethodName);
+    }
+
+    @Override
+    public synchronized Set<String> getMethods() {
+        return new HashSet<>(methodShards.keySet());
+    }
+
+    @Override
+    public synchronized Set<String> getPotentialCallers(String fullQualifiedMethodName) {
+        Set<String> methodCallers = callers.get(fullQualifiedMethodName);
+        if (methodCallers == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(methodCallers);
+    }
+
+    /**
+     * Loads the shard of the given method, the other CFGs of the shard are kept until they are requested.
+     *
+     * @return null if the method is not contained
+     */
+    @Override
+    public synchronized CFG build(String fullQualifiedMethodName) {
+        Integer shard = methodShards.get(fullQualifiedMethodName);
+        if (shard == null) {
+            return null;
+        }
+        if (!loadedShards.get(shard)) {
+            try {
+                loadShard(shard);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot load CFG shard: " + shardFiles[shard], e);
+            }
+            loadedShards.set(shard);
+        }
+        return loadedCFGs.remove(fullQualifiedMethodName);
+    }
+
+    private void loadShard(int shard) throws IOException {
+        Path file = folder.resolve(shardFiles[shard]);
+        try (Input in = new Input(FileChannel.open(file, StandardOpenOption.READ))) {
+            if (in.readRawInt() != SHARD_MAGIC) {
+                throw new IOException("Not a CFG shard: " + file);
+            }
+            int version = in.readVarInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported CFG shard version " + version + ": " + file);
+            }
+            String[] strings = CFGBinaryFormat.readStrings(in);
+
+            CFG[] cfgs = new CFG[in.readVarInt()];
+            int maxNodeId = -1;
+            for (int k = 0; k < cfgs.length; k++) {
+                cfgs[k] = CFGBinaryFormat.readCFG(in, strings);
+                for (CFGNode node : cfgs[k].nodes) {
+                    maxNodeId = Math.max(maxNodeId, node.getId());
+                }
+            }
+
+            int distanceTargetCount = in.readVarInt();
+            for (int k = 0; k < distanceTargetCount; k++) {
+                int targetId = in.readVarInt();
+                distances.ensureNodeCount(targetId, maxNodeId + 1);
+                for (CFG cfg : cfgs) {
+                    for (CFGNode node : cfg.nodes) {
+                        int distance = in.readVarInt();
+                        if (distance != 0) {
+                            distances.set(targetId, node.getId(), distance - 1);
+                        }
+                    }
+                }
+            }
+
+            for (CFG cfg : cfgs) {
+                loadedCFGs.put(cfg.getMethodName(), cfg);
+            }
+        }
+    }
+
+    @Override
+    public boolean providesIds() {
+        return true;
+    }
+
+}
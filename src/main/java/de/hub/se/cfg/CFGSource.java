@@ -0,0 +1,36 @@
+package de.hub.se.cfg;
+
+import java.util.Set;
+
+/**
+ * Source of the CFGs of a lazy {@link CFGAnalysis}, which builds or loads the CFG of a method on first use.
+ *
+ */
+public interface CFGSource {
+
+    boolean contains(String fullQualifiedMethodName);
+
+    /**
+     * Gets all methods, for which a CFG can be provided.
+     */
+    Set<String> getMethods();
+
+    /**
+     * Gets the methods, which might call the given method.
+     */
+    Set<String> getPotentialCallers(String fullQualifiedMethodName);
+
+    /**
+     * Builds or loads the CFG of the given method, every method is requested at most once.
+     *
+     * @return null if the method is not contained
+     */
+    CFG build(String fullQualifiedMethodName);
+
+    /**
+     * Checks whether the provided CFGs already carry their final node and edge ids, otherwise the analysis assigns
+     * them.
+     */
+    boolean providesIds();
+
+}
@@ -1,11 +1,8 @@
 package de.hub.se.cfg;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import org.apache.bcel.classfile.Method;
@@ -29,15 +26,15 @@ public final class CFGUtility {
 		return methodClass + "." + methodName + methodSignature;
 	}
 
+	/**
+	 * Writes the analysis in the binary format of {@link CFGBinaryFormat}.
+	 */
 	public static final void serialize(CFGAnalysis cfga, String folderPath) {
 		String filename = folderPath + "/" + SERIALIZATION_FILE_NAME;
 		try {
-			Files.createDirectories(Paths.get(filename).getParent());
-			FileOutputStream file = new FileOutputStream(filename);
-			ObjectOutputStream out = new ObjectOutputStream(file);
-			out.writeObject(cfga);
-			out.close();
-			file.close();
+			Path file = Paths.get(filename);
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			CFGBinaryFormat.write(cfga, file);
 			System.out.println("CFG serialized: " + filename);
 		} catch (IOException e) {
 			System.err.println("Error serializing and writing CFG file: " + filename);
@@ -45,24 +42,94 @@ public final class CFGUtility {
 		}
 	}
 
+	/**
+	 * Reads the analysis in the binary format of {@link CFGBinaryFormat}. Files written with Java serialization by
+	 * earlier versions are not supported, they have to be written again.
+	 */
 	public static final CFGAnalysis deserialize(String folderPath) {
 		String filename = folderPath + "/" + SERIALIZATION_FILE_NAME;
 		CFGAnalysis deseraCFGAAnalysis = null;
 		try {
-			FileInputStream file = new FileInputStream(filename);
-			ObjectInputStream in = new ObjectInputStream(file);
-			deseraCFGAAnalysis = (CFGAnalysis) in.readObject();
-			in.close();
-			file.close();
+			deseraCFGAAnalysis = CFGBinaryFormat.read(Paths.get(filename));
 			System.out.println("CFG deserialized: " + filename);
 		} catch (IOException e) {
 			System.err.println("Error deserializing CFG file: " + filename);
 			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			System.err.println("Error deserializing CFG file: " + filename);
-			e.printStackTrace();
 		}
 		return deseraCFGAAnalysis;
 	}
 
+	/**
+	 * Writes the memory mapped store of the nodes and distances, see {@link CFGDistanceStore}.
+	 */
+	public static final void writeDistanceStore(CFGAnalysis cfga, String folderPath) {
+		String filename = folderPath + "/" + CFGDistanceStore.STORE_FILE_NAME;
+		try {
+			CFGDistanceStore.write(cfga, Paths.get(filename));
+			System.out.println("CFG store written: " + filename);
+		} catch (IOException e) {
+			System.err.println("Error writing CFG store file: " + filename);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Maps the store of the nodes and distances written by {@link #writeDistanceStore(CFGAnalysis, String)}.
+	 */
+	public static final CFGDistanceStore openDistanceStore(String folderPath) {
+		String filename = folderPath + "/" + CFGDistanceStore.STORE_FILE_NAME;
+		try {
+			return CFGDistanceStore.open(Paths.get(filename));
+		} catch (IOException e) {
+			System.err.println("Error opening CFG store file: " + filename);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the analysis as one shard per class plus a manifest, see {@link CFGShardStore}.
+	 */
+	public static final void serializeSharded(CFGAnalysis cfga, String folderPath, int parallelism) {
+		String foldername = folderPath + "/" + CFGShardStore.SHARD_FOLDER_NAME;
+		try {
+			CFGShardStore.write(cfga, Paths.get(foldername), parallelism);
+			System.out.println("CFG shards written: " + foldername);
+		} catch (IOException e) {
+			System.err.println("Error writing CFG shards: " + foldername);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Opens the analysis written by {@link #serializeSharded(CFGAnalysis, String, int)}, the shards are loaded on first
+	 * access of one of their methods.
+	 */
+	public static final CFGAnalysis deserializeSharded(String folderPath) {
+		String foldername = folderPath + "/" + CFGShardStore.SHARD_FOLDER_NAME;
+		try {
+			CFGAnalysis cfga = CFGShardStore.open(Paths.get(foldername));
+			System.out.println("CFG shard manifest read: " + foldername);
+			return cfga;
+		} catch (IOException e) {
+			System.err.println("Error reading CFG shards: " + foldername);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Publishes the distances to the nearest target for a fuzzing harness, see {@link SharedDistanceMap}.
+	 */
+	public static final void publishDistanceMap(CFGAnalysis cfga, String folderPath) {
+		String filename = folderPath + "/" + SharedDistanceMap.MAP_FILE_NAME;
+		try {
+			cfga.publishDistanceMap(Paths.get(filename));
+			System.out.println("Distance map published: " + filename);
+		} catch (IOException e) {
+			System.err.println("Error publishing distance map file: " + filename);
+			e.printStackTrace();
+		}
+	}
+
 }
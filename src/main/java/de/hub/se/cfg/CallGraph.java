@@ -0,0 +1,275 @@
+package de.hub.se.cfg;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Interprocedural call graph between the methods of the analyzed CFGs, derived from their call sites. Methods are
+ * numbered 0 .. getMethodCount() - 1 in the order of their method symbol ids, caller and callee adjacency is stored in
+ * compressed sparse row arrays. Calls to methods without CFG and recursive calls of a method to itself are not part of
+ * the graph.
+ *
+ * The strongly connected components (mutually recursive methods) are computed with Tarjan's algorithm. Components are
+ * numbered such that a component only calls components with smaller numbers, i.e. descending component numbers are a
+ * topological order of the condensed graph from callers to callees.
+ *
+ */
+public class CallGraph {
+
+    private final int[] methodIds; // method symbol id per method index, ascending
+    private final IntIntMap methodIndices; // method symbol id to method index
+
+    private final int[] calleeOffsets;
+    private final int[] callees;
+    private final int[] callerOffsets;
+    private final int[] callers;
+
+    private final int[] components; // component per method index
+    private final int componentCount;
+
+    /**
+     * Builds the call graph for the given CFGs.
+     */
+    public CallGraph(Collection<CFG> cfgs) {
+        final CFG[] cfgsByIndex = cfgs.toArray(new CFG[0]);
+        int methodCount = cfgsByIndex.length;
+        methodIds = new int[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            methodIds[i] = cfgsByIndex[i].getMethodId();
+        }
+        Arrays.sort(methodIds);
+        methodIndices = new IntIntMap(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            methodIndices.put(methodIds[i], i);
+        }
+
+        /* Collect the distinct callees of every method. */
+        final int[][] calleesByMethod = new int[methodCount][];
+        for (final CFG cfg : cfgsByIndex) {
+            final int caller = methodIndices.get(cfg.getMethodId(), -1);
+            final int[] calledMethods = new int[cfg.callNodeMap.size()];
+            final int[] count = new int[1];
+            cfg.callNodeMap.forEach(new IntObjectMap.EntryConsumer<int[]>() {
+                @Override
+                public void accept(int calledMethodId, int[] callerIds) {
+                    int callee = methodIndices.get(calledMethodId, -1);
+                    if (callee >= 0 && callee != caller) {
+                        calledMethods[count[0]++] = callee;
+                    }
+                }
+            });
+            int[] sortedCallees = Arrays.copyOf(calledMethods, count[0]);
+            Arrays.sort(sortedCallees);
+            calleesByMethod[caller] = sortedCallees;
+        }
+
+        calleeOffsets = new int[methodCount + 1];
+        callerOffsets = new int[methodCount + 1];
+        for (int i = 0; i < methodCount; i++) {
+            calleeOffsets[i + 1] = calleeOffsets[i] + calleesByMethod[i].length;
+            for (int callee : calleesByMethod[i]) {
+                callerOffsets[callee + 1]++;
+            }
+        }
+        for (int i = 0; i < methodCount; i++) {
+            callerOffsets[i + 1] += callerOffsets[i];
+        }
+        callees = new int[calleeOffsets[methodCount]];
+        callers = new int[callees.length];
+        int[] nextCallerSlot = Arrays.copyOf(callerOffsets, methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            System.arraycopy(calleesByMethod[i], 0, callees, calleeOffsets[i], calleesByMethod[i].length);
+            for (int callee : calleesByMethod[i]) {
+                callers[nextCallerSlot[callee]++] = i;
+            }
+        }
+
+        components = new int[methodCount];
+        componentCount = computeComponents();
+    }
+
+    /**
+     * Tarjan's algorithm with an explicit stack, so that deep call chains cannot overflow the Java stack. Components are
+     * numbered in the order they are completed, i.e. callees before callers.
+     *
+     * @return number of components
+     */
+    private int computeComponents() {
+        int methodCount = methodIds.length;
+        int[] index = new int[methodCount];
+        int[] low = new int[methodCount];
+        int[] nextCallee = new int[methodCount];
+        boolean[] onStack = new boolean[methodCount];
+        int[] stack = new int[methodCount];
+        int[] path = new int[methodCount];
+        Arrays.fill(index, -1);
+        int stackSize = 0;
+        int counter = 0;
+        int componentCounter = 0;
+
+        for (int root = 0; root < methodCount; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            path[depth++] = root;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            nextCallee[root] = calleeOffsets[root];
+
+            while (depth > 0) {
+                int v = path[depth - 1];
+                if (nextCallee[v] < calleeOffsets[v + 1]) {
+                    int w = callees[nextCallee[v]++];
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        nextCallee[w] = calleeOffsets[w];
+                        path[depth++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                } else {
+                    depth--;
+                    if (low[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--stackSize];
+                            onStack[w] = false;
+                            components[w] = componentCounter;
+                        } while (w != v);
+                        componentCounter++;
+                    }
+                    if (depth > 0) {
+                        int u = path[depth - 1];
+                        low[u] = Math.min(low[u], low[v]);
+                    }
+                }
+            }
+        }
+        return componentCounter;
+    }
+
+    public int getMethodCount() {
+        return methodIds.length;
+    }
+
+    /**
+     * Gets the method symbol id of the method with the given index.
+     */
+    public int getMethodId(int methodIndex) {
+        return methodIds[methodIndex];
+    }
+
+    /**
+     * Gets the index of the method with the given symbol id.
+     *
+     * @return index, -1 if the method is not in the call graph
+     */
+    public int getMethodIndex(int methodId) {
+        return methodIndices.get(methodId, -1);
+    }
+
+    /**
+     * Gets the indices of the methods called by the given method.
+     */
+    public int[] getCallees(int methodIndex) {
+        return Arrays.copyOfRange(callees, calleeOffsets[methodIndex], calleeOffsets[methodIndex + 1]);
+    }
+
+    /**
+     * Gets the indices of the methods calling the given method.
+     */
+    public int[] getCallers(int methodIndex) {
+        return Arrays.copyOfRange(callers, callerOffsets[methodIndex], callerOffsets[methodIndex + 1]);
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Gets the strongly connected component of the method with the given index.
+     */
+    public int getComponent(int methodIndex) {
+        return components[methodIndex];
+    }
+
+    /**
+     * Gets the components in topological order of the condensed graph, callers before callees.
+     */
+    public int[] getTopologicalOrder() {
+        int[] order = new int[componentCount];
+        for (int k = 0; k < componentCount; k++) {
+            order[k] = componentCount - 1 - k;
+        }
+        return order;
+    }
+
+    /**
+     * Gets the number of calls on the shortest call chain from every method to the target method.
+     *
+     * @return distance per method index, -1 if the target cannot be reached
+     */
+    private int[] getCallDistances(int targetMethodIndex) {
+        int methodCount = methodIds.length;
+        int[] distances = new int[methodCount];
+        Arrays.fill(distances, -1);
+        int[] queue = new int[methodCount];
+        int head = 0;
+        int tail = 0;
+        distances[targetMethodIndex] = 0;
+        queue[tail++] = targetMethodIndex;
+        while (head < tail) {
+            int method = queue[head++];
+            for (int k = callerOffsets[method]; k < callerOffsets[method + 1]; k++) {
+                int caller = callers[k];
+                if (distances[caller] < 0) {
+                    distances[caller] = distances[method] + 1;
+                    queue[tail++] = caller;
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Computes the method level distance to the target methods as defined by AFLGo: the harmonic mean of the call
+     * distances to all reachable targets, 0 for the targets themselves. Can be used as coarse first pass before the
+     * distances on block level are computed.
+     *
+     * @param targetMethodIndices
+     *            - method indices
+     * @return distance per method index, -1 if no target can be reached
+     */
+    public double[] getMethodDistances(int... targetMethodIndices) {
+        int methodCount = methodIds.length;
+        double[] inverseSums = new double[methodCount];
+        boolean[] isTarget = new boolean[methodCount];
+        boolean[] reachesTarget = new boolean[methodCount];
+        for (int target : targetMethodIndices) {
+            isTarget[target] = true;
+            int[] distances = getCallDistances(target);
+            for (int i = 0; i < methodCount; i++) {
+                if (distances[i] > 0) {
+                    inverseSums[i] += 1.0 / distances[i];
+                    reachesTarget[i] = true;
+                }
+            }
+        }
+        double[] methodDistances = new double[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            if (isTarget[i]) {
+                methodDistances[i] = 0;
+            } else if (reachesTarget[i]) {
+                methodDistances[i] = 1.0 / inverseSums[i];
+            } else {
+                methodDistances[i] = -1;
+            }
+        }
+        return methodDistances;
+    }
+
+}
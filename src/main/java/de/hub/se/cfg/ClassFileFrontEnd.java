@@ -0,0 +1,179 @@
+package de.hub.se.cfg;
+
+import java.util.BitSet;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.classfile.Utility;
+
+/**
+ * Lightweight front end, which scans the raw bytes of the Code attribute. Only branches, switches, invocations and
+ * returns are decoded, all other instructions are just skipped by their length. Invocation targets are resolved
+ * directly in the constant pool, no MethodGen or InstructionList is created.
+ *
+ */
+public class ClassFileFrontEnd implements BytecodeFrontEnd {
+
+    /* Instruction lengths for all opcodes with fixed length, 0 for variable length or invalid opcodes. */
+    private static final byte[] LENGTHS = new byte[256];
+
+    static {
+        for (int opcode = 0; opcode <= 201; opcode++) {
+            LENGTHS[opcode] = 1;
+        }
+        LENGTHS[Const.BIPUSH] = 2;
+        LENGTHS[Const.SIPUSH] = 3;
+        LENGTHS[Const.LDC] = 2;
+        LENGTHS[Const.LDC_W] = 3;
+        LENGTHS[Const.LDC2_W] = 3;
+        for (int opcode = Const.ILOAD; opcode <= Const.ALOAD; opcode++) {
+            LENGTHS[opcode] = 2;
+        }
+        for (int opcode = Const.ISTORE; opcode <= Const.ASTORE; opcode++) {
+            LENGTHS[opcode] = 2;
+        }
+        LENGTHS[Const.IINC] = 3;
+        for (int opcode = Const.IFEQ; opcode <= Const.JSR; opcode++) {
+            LENGTHS[opcode] = 3;
+        }
+        LENGTHS[Const.RET] = 2;
+        LENGTHS[Const.TABLESWITCH] = 0;
+        LENGTHS[Const.LOOKUPSWITCH] = 0;
+        for (int opcode = Const.GETSTATIC; opcode <= Const.INVOKESTATIC; opcode++) {
+            LENGTHS[opcode] = 3;
+        }
+        LENGTHS[Const.INVOKEINTERFACE] = 5;
+        LENGTHS[Const.INVOKEDYNAMIC] = 5;
+        LENGTHS[Const.NEW] = 3;
+        LENGTHS[Const.NEWARRAY] = 2;
+        LENGTHS[Const.ANEWARRAY] = 3;
+        LENGTHS[Const.CHECKCAST] = 3;
+        LENGTHS[Const.INSTANCEOF] = 3;
+        LENGTHS[Const.WIDE] = 0;
+        LENGTHS[Const.MULTIANEWARRAY] = 4;
+        LENGTHS[Const.IFNULL] = 3;
+        LENGTHS[Const.IFNONNULL] = 3;
+        LENGTHS[Const.GOTO_W] = 5;
+        LENGTHS[Const.JSR_W] = 5;
+    }
+
+    private ConstantPool constantPool;
+
+    /* Resolved invocation targets of the current class, indexed by constant pool index. */
+    private String[] invokedMethodNames;
+    private final BitSet exitInvocations = new BitSet();
+
+    @Override
+    public void startClass(JavaClass javaClass) {
+        this.constantPool = javaClass.getConstantPool();
+        this.invokedMethodNames = new String[constantPool.getLength()];
+        this.exitInvocations.clear();
+    }
+
+    @Override
+    public MethodBytecode decode(Method method) {
+        Code codeAttribute = method.getCode();
+        byte[] bytes = codeAttribute.getCode();
+        MethodBytecode code = new MethodBytecode(bytes.length, method.getLineNumberTable());
+
+        int pos = 0;
+        while (pos < bytes.length) {
+            int opcode = bytes[pos] & 0xFF;
+            int length = LENGTHS[opcode];
+
+            if ((opcode >= Const.IFEQ && opcode <= Const.IF_ACMPNE) || opcode == Const.IFNULL
+                    || opcode == Const.IFNONNULL) {
+                code.addBranch(pos, MethodBytecode.IF, pos + readShort(bytes, pos + 1));
+            } else if (opcode == Const.GOTO) {
+                code.addBranch(pos, MethodBytecode.GOTO, pos + readShort(bytes, pos + 1));
+            } else if (opcode == Const.GOTO_W) {
+                code.addBranch(pos, MethodBytecode.GOTO, pos + readInt(bytes, pos + 1));
+            } else if (opcode == Const.JSR) {
+                code.addBranch(pos, MethodBytecode.JSR, pos + readShort(bytes, pos + 1));
+            } else if (opcode == Const.JSR_W) {
+                code.addBranch(pos, MethodBytecode.JSR, pos + readInt(bytes, pos + 1));
+            } else if (opcode == Const.TABLESWITCH || opcode == Const.LOOKUPSWITCH) {
+                /* Operands are aligned to a multiple of four bytes from the start of the code. */
+                int operands = (pos + 4) & ~3;
+                int defaultTarget = pos + readInt(bytes, operands);
+                int[] caseTargets;
+                if (opcode == Const.TABLESWITCH) {
+                    int low = readInt(bytes, operands + 4);
+                    int high = readInt(bytes, operands + 8);
+                    caseTargets = new int[high - low + 1];
+                    for (int k = 0; k < caseTargets.length; k++) {
+                        caseTargets[k] = pos + readInt(bytes, operands + 12 + 4 * k);
+                    }
+                    length = operands + 12 + 4 * caseTargets.length - pos;
+                } else {
+                    caseTargets = new int[readInt(bytes, operands + 4)];
+                    for (int k = 0; k < caseTargets.length; k++) {
+                        caseTargets[k] = pos + readInt(bytes, operands + 12 + 8 * k);
+                    }
+                    length = operands + 8 + 8 * caseTargets.length - pos;
+                }
+                code.addSwitch(pos, caseTargets, defaultTarget);
+            } else if (opcode >= Const.INVOKEVIRTUAL && opcode <= Const.INVOKEDYNAMIC) {
+                int index = readShort(bytes, pos + 1) & 0xFFFF;
+                String invokedMethod = getInvokedMethodName(opcode, index);
+                byte kind = exitInvocations.get(index) ? MethodBytecode.EXIT : MethodBytecode.INVOKE;
+                code.addInvoke(pos, kind, invokedMethod);
+            } else if (opcode >= Const.IRETURN && opcode <= Const.RETURN) {
+                code.addInstruction(pos, MethodBytecode.RETURN);
+            } else if (opcode == Const.WIDE) {
+                length = (bytes[pos + 1] & 0xFF) == Const.IINC ? 6 : 4;
+                code.addInstruction(pos, MethodBytecode.OTHER);
+            } else if (length == 0) {
+                throw new ClassFormatError("Invalid opcode " + opcode + " at offset " + pos + " in " + method);
+            } else {
+                code.addInstruction(pos, MethodBytecode.OTHER);
+            }
+            pos += length;
+        }
+        return code;
+    }
+
+    /**
+     * Resolves the full qualified name of the invoked method like BCEL's InvokeInstruction.
+     */
+    private String getInvokedMethodName(int opcode, int index) {
+        String name = invokedMethodNames[index];
+        if (name == null) {
+            /* Method references and invokedynamic constants both refer to their name and type. */
+            ConstantCP ref = (ConstantCP) constantPool.getConstant(index);
+            String methodClass;
+            if (opcode == Const.INVOKEDYNAMIC) {
+                /* BCEL reports java.lang.Object as reference type of invokedynamic. */
+                methodClass = "java.lang.Object";
+            } else {
+                String internalClassName = constantPool.getConstantString(ref.getClassIndex(), Const.CONSTANT_Class);
+                methodClass = internalClassName.startsWith("[") ? Utility.signatureToString(internalClassName, false)
+                        : internalClassName.replace('/', '.');
+            }
+            ConstantNameAndType nameAndType = (ConstantNameAndType) constantPool.getConstant(ref.getNameAndTypeIndex());
+            String methodName = nameAndType.getName(constantPool);
+            name = CFGUtility.getFullQualifiedMethodName(methodClass, methodName,
+                    nameAndType.getSignature(constantPool));
+            if (MethodBytecode.isExit(methodClass, methodName)) {
+                exitInvocations.set(index);
+            }
+            invokedMethodNames[index] = name;
+        }
+        return name;
+    }
+
+    private static int readShort(byte[] bytes, int index) {
+        return (short) (((bytes[index] & 0xFF) << 8) | (bytes[index + 1] & 0xFF));
+    }
+
+    private static int readInt(byte[] bytes, int index) {
+        return ((bytes[index] & 0xFF) << 24) | ((bytes[index + 1] & 0xFF) << 16) | ((bytes[index + 2] & 0xFF) << 8)
+                | (bytes[index + 3] & 0xFF);
+    }
+
+}
@@ -0,0 +1,145 @@
+package de.hub.se.cfg;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams the class files of a JAR file or a class directory without extracting them and without going through BCEL's
+ * Repository. Class files can be restricted to included packages, and packages can be skipped.
+ *
+ */
+public class ClassFileReader {
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Set<String> includedPackages;
+    private final Set<String> skippedPackages;
+
+    /**
+     * Receives the bytes of every class file read.
+     */
+    public interface ClassFileConsumer {
+        void accept(String entryName, String className, byte[] classBytes) throws Exception;
+    }
+
+    /**
+     * @param includedPackages
+     *            - packages (including their sub-packages) to read, null or empty for all packages
+     * @param skippedPackages
+     *            - packages (including their sub-packages) to skip, can be null
+     */
+    public ClassFileReader(Set<String> includedPackages, Set<String> skippedPackages) {
+        this.includedPackages = includedPackages == null ? Collections.<String> emptySet() : includedPackages;
+        this.skippedPackages = skippedPackages == null ? Collections.<String> emptySet() : skippedPackages;
+    }
+
+    /**
+     * Checks whether the class is in one of the included packages and in none of the skipped packages.
+     */
+    public boolean isIncluded(String className) {
+        if (!includedPackages.isEmpty() && !isInPackage(className, includedPackages)) {
+            return false;
+        }
+        return !isInPackage(className, skippedPackages);
+    }
+
+    private static boolean isInPackage(String className, Set<String> packages) {
+        int end = className.lastIndexOf('.');
+        while (end > 0) {
+            if (packages.contains(className.substring(0, end))) {
+                return true;
+            }
+            end = className.lastIndexOf('.', end - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Reads all included class files of the given JAR file or class directory.
+     */
+    public void read(String path, ClassFileConsumer consumer) throws Exception {
+        Path p = Paths.get(path);
+        if (Files.isDirectory(p)) {
+            readDirectory(p, consumer);
+        } else {
+            readJar(p, consumer);
+        }
+    }
+
+    private void readJar(Path jar, ClassFileConsumer consumer) throws Exception {
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(Files.newInputStream(jar), BUFFER_SIZE))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String entryName = entry.getName();
+                if (entry.isDirectory() || !entryName.endsWith(CLASS_FILE_SUFFIX) || entryName.startsWith("META-INF/")) {
+                    continue;
+                }
+                String className = toClassName(entryName);
+                if (className.endsWith("module-info") || !isIncluded(className)) {
+                    continue;
+                }
+                consumer.accept(entryName, className, readFully(in, entry.getSize()));
+            }
+        }
+    }
+
+    private void readDirectory(Path root, ClassFileConsumer consumer) throws Exception {
+        try (Stream<Path> files = Files.walk(root)) {
+            Iterator<Path> it = files.iterator();
+            while (it.hasNext()) {
+                Path file = it.next();
+                String entryName = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+                if (!entryName.endsWith(CLASS_FILE_SUFFIX) || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                String className = toClassName(entryName);
+                if (className.endsWith("module-info") || !isIncluded(className)) {
+                    continue;
+                }
+                consumer.accept(entryName, className, Files.readAllBytes(file));
+            }
+        }
+    }
+
+    private static String toClassName(String entryName) {
+        return entryName.substring(0, entryName.length() - CLASS_FILE_SUFFIX.length()).replace('/', '.');
+    }
+
+    /**
+     * Reads the remaining bytes of the stream, the size hint is used to avoid copying if it is known.
+     */
+    static byte[] readFully(InputStream in, long sizeHint) throws IOException {
+        if (sizeHint >= 0 && sizeHint < Integer.MAX_VALUE) {
+            byte[] bytes = new byte[(int) sizeHint];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of class file");
+                }
+                offset += read;
+            }
+            return bytes;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,192 @@
+package de.hub.se.cfg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.hub.se.cfg.CFGBinaryFormat.Input;
+import de.hub.se.cfg.CFGBinaryFormat.Output;
+import de.hub.se.cfg.CFGBinaryFormat.StringTable;
+
+/**
+ * Persistent cache of distance rows, used by
+ * {@link CFGAnalysis#calculateDistancesToTargets(java.util.Set, int, DistanceCache)}. Every row is stored in its own
+ * file under a folder named by the hash of the analyzed code, which is computed over the {@link CFGBinaryFormat}
+ * encoding of all CFGs with their node ids, and a file named by the hash of the target. So a target set, which shares
+ * only some targets with an earlier run, still reuses their rows and only the missing targets are calculated.
+ *
+ * <pre>
+ * folder/codeHash/targetHash.dist
+ * row := MAGIC version method:string line targetNodeId nodeCount (distance+1)*
+ * </pre>
+ *
+ * The row is encoded like the distances of {@link CFGBinaryFormat}, unreachable distances are stored as 0. Rows are
+ * written to a temporary file and moved into place, so concurrent runs never read a partially written row. Errors while
+ * reading or writing the cache are reported and the distances are calculated instead.
+ *
+ */
+public class DistanceCache {
+
+    public static final int MAGIC = 0x43464744; // "CFGD"
+    public static final int VERSION = 1;
+
+    private static final String ROW_FILE_SUFFIX = ".dist";
+
+    private final Path folder;
+
+    public DistanceCache(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Computes the hash of the analyzed code, in lazy mode all CFGs are built first. The hash changes whenever a CFG
+     * or the assignment of node ids changes.
+     */
+    public String getCodeHash(CFGAnalysis cfga) {
+        List<CFG> cfgs = new ArrayList<>(cfga.getAllIncludedCFG());
+        Collections.sort(cfgs, (a, b) -> Integer.compare(a.nodes.get(0).getId(), b.nodes.get(0).getId()));
+        StringTable strings = new StringTable();
+        for (CFG cfg : cfgs) {
+            strings.addCFG(cfg);
+        }
+
+        final MessageDigest digest = newDigest();
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int length = src.remaining();
+                digest.update(src);
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (Output out = new Output(channel)) {
+            out.writeVarInt(cfga.getNodeCount());
+            out.writeVarInt(cfga.getEdgeCount());
+            CFGBinaryFormat.writeStrings(out, strings);
+            out.writeVarInt(cfgs.size());
+            for (CFG cfg : cfgs) {
+                CFGBinaryFormat.writeCFG(out, cfg, strings);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot hash CFGs", e);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Loads the row of the target.
+     *
+     * @return distance per node id, null if the row is not cached for the code or does not match the target node
+     */
+    public int[] load(String codeHash, CFGTarget target, int targetNodeId, int nodeCount) {
+        Path file = getRowFile(codeHash, target);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (Input in = new Input(FileChannel.open(file, StandardOpenOption.READ))) {
+            if (in.readRawInt() != MAGIC || in.readVarInt() != VERSION) {
+                return null;
+            }
+            String method = new String(in.readBytes(in.readVarInt()), StandardCharsets.UTF_8);
+            int line = in.readSignedVarInt();
+            if (!target.equals(new CFGTarget(method, line)) || in.readVarInt() != targetNodeId
+                    || in.readVarInt() != nodeCount) {
+                return null;
+            }
+            int[] nodeDistances = new int[nodeCount];
+            for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+                int distance = in.readVarInt();
+                nodeDistances[nodeId] = distance == 0 ? DistanceMatrix.UNREACHABLE : distance - 1;
+            }
+            return nodeDistances;
+        } catch (IOException e) {
+            System.err.println("Error reading distance cache file: " + file);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the row of the target.
+     *
+     * @param nodeDistances
+     *            - distance per node id, {@link DistanceMatrix#UNREACHABLE} for nodes, which cannot reach the target
+     */
+    public void store(String codeHash, CFGTarget target, int targetNodeId, int[] nodeDistances) {
+        Path file = getRowFile(codeHash, target);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (Output out = new Output(FileChannel.open(tmpFile, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING))) {
+                    out.writeRawInt(MAGIC);
+                    out.writeVarInt(VERSION);
+                    byte[] method = target.getMethod().getBytes(StandardCharsets.UTF_8);
+                    out.writeVarInt(method.length);
+                    out.writeBytes(method);
+                    out.writeSignedVarInt(target.getSourceLineNumber());
+                    out.writeVarInt(targetNodeId);
+                    out.writeVarInt(nodeDistances.length);
+                    for (int distance : nodeDistances) {
+                        out.writeVarInt(distance == DistanceMatrix.UNREACHABLE ? 0 : distance + 1);
+                    }
+                }
+                try {
+                    Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing distance cache file: " + file);
+            e.printStackTrace();
+        }
+    }
+
+    private Path getRowFile(String codeHash, CFGTarget target) {
+        MessageDigest digest = newDigest();
+        digest.update(target.toString().getBytes(StandardCharsets.UTF_8));
+        return folder.resolve(codeHash).resolve(toHex(digest.digest()) + ROW_FILE_SUFFIX);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
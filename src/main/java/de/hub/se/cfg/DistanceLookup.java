@@ -0,0 +1,112 @@
+package de.hub.se.cfg;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Compiled table for runtime lookups of (method symbol id, bytecode offset) to the id of the basic block containing
+ * the offset and its distance. Every method has a slice of one flat array with an entry per bytecode offset, so a
+ * lookup takes a few array reads and does not allocate. The table is a snapshot, it is not updated when distances are
+ * calculated or CFGs are added later.
+ *
+ */
+public class DistanceLookup {
+
+    private final int[] methodOffsets; // start of the method's slice in offsetNodes per method symbol id, -1 if unknown
+    private final int[] methodLengths; // number of bytecode offsets per method symbol id
+    private final int[] offsetNodes; // node id per method and bytecode offset, -1 if the offset is in no block
+    private final int[] nodeDistances; // distance per node id
+
+    /**
+     * Compiles the table for the given CFGs.
+     *
+     * @param nodeDistances
+     *            - distance per node id, {@link DistanceMatrix#UNREACHABLE} for nodes, which cannot reach a target
+     */
+    public DistanceLookup(Collection<CFG> cfgs, int[] nodeDistances) {
+        this.nodeDistances = nodeDistances;
+
+        int methodCount = 0;
+        int offsetCount = 0;
+        for (CFG cfg : cfgs) {
+            methodCount = Math.max(methodCount, cfg.getMethodId() + 1);
+            offsetCount += getCodeLength(cfg);
+        }
+        methodOffsets = new int[methodCount];
+        methodLengths = new int[methodCount];
+        offsetNodes = new int[offsetCount];
+        Arrays.fill(methodOffsets, -1);
+        Arrays.fill(offsetNodes, -1);
+
+        int base = 0;
+        for (CFG cfg : cfgs) {
+            int methodId = cfg.getMethodId();
+            int codeLength = getCodeLength(cfg);
+            methodOffsets[methodId] = base;
+            methodLengths[methodId] = codeLength;
+
+            /* A block covers all offsets from its start up to the start of the next block. */
+            CFGNode[] nodes = getRealNodesByOffset(cfg);
+            for (int k = 0; k < nodes.length; k++) {
+                int end = k + 1 < nodes.length ? nodes[k + 1].getStartOffset() : codeLength;
+                Arrays.fill(offsetNodes, base + nodes[k].getStartOffset(), base + end, nodes[k].getId());
+            }
+            base += codeLength;
+        }
+    }
+
+    static int getCodeLength(CFG cfg) {
+        int codeLength = 0;
+        for (CFGNode node : cfg.getNodes()) {
+            if (!node.isVirtual()) {
+                codeLength = Math.max(codeLength, node.getEndOffset() + 1);
+            }
+        }
+        return codeLength;
+    }
+
+    static CFGNode[] getRealNodesByOffset(CFG cfg) {
+        CFGNode[] nodes = cfg.getNodes();
+        int count = 0;
+        for (CFGNode node : nodes) {
+            if (!node.isVirtual()) {
+                nodes[count++] = node;
+            }
+        }
+        nodes = Arrays.copyOf(nodes, count);
+        Arrays.sort(nodes, (a, b) -> Integer.compare(a.getStartOffset(), b.getStartOffset()));
+        return nodes;
+    }
+
+    /**
+     * Gets the id of the basic block, which contains the given bytecode offset.
+     *
+     * @return node id, -1 if the method or offset is unknown
+     */
+    public int getNodeId(int methodId, int offset) {
+        if (methodId < 0 || methodId >= methodOffsets.length || offset < 0 || offset >= methodLengths[methodId]) {
+            return -1;
+        }
+        return offsetNodes[methodOffsets[methodId] + offset];
+    }
+
+    /**
+     * Gets the distance of the basic block, which contains the given bytecode offset.
+     *
+     * @return the distance, {@link DistanceMatrix#UNREACHABLE} if no target is reachable or the offset is unknown
+     */
+    public int getDistance(int methodId, int offset) {
+        return getDistanceByNodeId(getNodeId(methodId, offset));
+    }
+
+    /**
+     * @return the distance, {@link DistanceMatrix#UNREACHABLE} if no target is reachable or the node is unknown
+     */
+    public int getDistanceByNodeId(int nodeId) {
+        if (nodeId < 0 || nodeId >= nodeDistances.length) {
+            return DistanceMatrix.UNREACHABLE;
+        }
+        return nodeDistances[nodeId];
+    }
+
+}
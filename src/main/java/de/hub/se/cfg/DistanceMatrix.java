@@ -0,0 +1,211 @@
+package de.hub.se.cfg;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Distances of all nodes of an analysis to its targets. Every target has one row of ints indexed by the dense node id,
+ * nodes, which cannot reach the target, hold {@link #UNREACHABLE}. Rows are kept on the Java heap or, optionally, in
+ * direct buffers outside of it. Rows grow when nodes are added to the analysis.
+ *
+ * The matrix is not thread-safe. Rows of different targets may be merged concurrently, if the targets have been added
+ * and sized with {@link #ensureNodeCount(int, int)} before.
+ *
+ */
+public class DistanceMatrix implements Serializable {
+
+    private static final long serialVersionUID = 5530192675118873105L;
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final boolean offHeap;
+
+    private transient IntIntMap rowsByTarget; // target node id to row index
+    private transient int[] targetIds;
+    private transient IntBuffer[] rows;
+    private transient int targetCount;
+
+    /**
+     * @param offHeap
+     *            - store the rows in direct buffers instead of int arrays
+     */
+    public DistanceMatrix(boolean offHeap) {
+        this.offHeap = offHeap;
+        init();
+    }
+
+    private void init() {
+        rowsByTarget = new IntIntMap();
+        targetIds = new int[4];
+        rows = new IntBuffer[4];
+        targetCount = 0;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    /**
+     * Gets the target node ids in the order in which the targets were added.
+     */
+    public int[] getTargetIds() {
+        return Arrays.copyOf(targetIds, targetCount);
+    }
+
+    public boolean containsTarget(int targetNodeId) {
+        return rowsByTarget.containsKey(targetNodeId);
+    }
+
+    /**
+     * Gets the distance of the node to the target.
+     *
+     * @return the distance, {@link #UNREACHABLE} if the target is not reachable from the node
+     */
+    public int get(int targetNodeId, int nodeId) {
+        int row = rowsByTarget.get(targetNodeId, -1);
+        if (row < 0) {
+            return UNREACHABLE;
+        }
+        IntBuffer distances = rows[row];
+        return nodeId < distances.capacity() ? distances.get(nodeId) : UNREACHABLE;
+    }
+
+    /**
+     * Sets the distance of the node to the target, the target is added if necessary.
+     */
+    public void set(int targetNodeId, int nodeId, int distance) {
+        IntBuffer distances = getRow(targetNodeId, nodeId + 1);
+        distances.put(nodeId, distance);
+    }
+
+    /**
+     * Sets the distance of the node to the target if it is smaller than the current distance.
+     *
+     * @return true if the distance was updated
+     */
+    public boolean setIfBetter(int targetNodeId, int nodeId, int distance) {
+        IntBuffer distances = getRow(targetNodeId, nodeId + 1);
+        if (distances.get(nodeId) <= distance) {
+            return false;
+        }
+        distances.put(nodeId, distance);
+        return true;
+    }
+
+    /**
+     * Adds the target if necessary and grows its row to the given number of nodes.
+     */
+    public void ensureNodeCount(int targetNodeId, int nodeCount) {
+        getRow(targetNodeId, nodeCount);
+    }
+
+    /**
+     * Merges the distances computed for the target into its row, every node keeps the smaller distance.
+     *
+     * @param nodeDistances
+     *            - distance per node id, {@link #UNREACHABLE} for nodes, which cannot reach the target
+     */
+    public void merge(int targetNodeId, int[] nodeDistances) {
+        IntBuffer distances = getRow(targetNodeId, nodeDistances.length);
+        for (int nodeId = 0; nodeId < nodeDistances.length; nodeId++) {
+            if (nodeDistances[nodeId] < distances.get(nodeId)) {
+                distances.put(nodeId, nodeDistances[nodeId]);
+            }
+        }
+    }
+
+    /**
+     * Gets the row of the target with at least the given number of nodes, the target is added if necessary.
+     */
+    private IntBuffer getRow(int targetNodeId, int nodeCount) {
+        int row = rowsByTarget.get(targetNodeId, -1);
+        if (row < 0) {
+            if (targetCount == rows.length) {
+                targetIds = Arrays.copyOf(targetIds, 2 * targetCount);
+                rows = Arrays.copyOf(rows, 2 * targetCount);
+            }
+            row = targetCount++;
+            targetIds[row] = targetNodeId;
+            rows[row] = allocate(nodeCount);
+            rowsByTarget.put(targetNodeId, row);
+        }
+        IntBuffer distances = rows[row];
+        if (distances.capacity() < nodeCount) {
+            IntBuffer grown = allocate(Math.max(nodeCount, 2 * distances.capacity()));
+            distances.rewind();
+            grown.put(distances);
+            grown.rewind();
+            rows[row] = grown;
+            distances = grown;
+        }
+        return distances;
+    }
+
+    private IntBuffer allocate(int nodeCount) {
+        IntBuffer row;
+        if (offHeap) {
+            row = ByteBuffer.allocateDirect(4 * nodeCount).order(ByteOrder.nativeOrder()).asIntBuffer();
+        } else {
+            row = IntBuffer.wrap(new int[nodeCount]);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            row.put(i, UNREACHABLE);
+        }
+        return row;
+    }
+
+    /**
+     * Gets the distances of the node to all targets, in the format of a map from target node id to distance.
+     */
+    public String toString(int nodeId) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int row = 0; row < targetCount; row++) {
+            int distance = nodeId < rows[row].capacity() ? rows[row].get(nodeId) : UNREACHABLE;
+            if (distance != UNREACHABLE) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(targetIds[row]).append('=').append(distance);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(targetCount);
+        for (int row = 0; row < targetCount; row++) {
+            IntBuffer distances = rows[row];
+            out.writeInt(targetIds[row]);
+            out.writeInt(distances.capacity());
+            for (int i = 0; i < distances.capacity(); i++) {
+                out.writeInt(distances.get(i));
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        int count = in.readInt();
+        for (int k = 0; k < count; k++) {
+            int targetNodeId = in.readInt();
+            int nodeCount = in.readInt();
+            IntBuffer distances = getRow(targetNodeId, nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                distances.put(i, in.readInt());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,315 @@
+package de.hub.se.cfg;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Open addressing hash map from int to int with linear probing, keys and values are stored in primitive arrays without
+ * boxing. Lookups take a value, which is returned for missing keys. {@link #asMap()} provides a java.util.Map view for
+ * existing interfaces.
+ *
+ */
+public class IntIntMap implements Serializable {
+
+    private static final long serialVersionUID = 2937645021873350917L;
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    private transient Map<Integer, Integer> mapView;
+
+    /**
+     * Receives the entries of the map.
+     */
+    public interface EntryConsumer {
+        void accept(int key, int value);
+    }
+
+    public IntIntMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize
+     *            - number of entries, which can be added without resizing
+     */
+    public IntIntMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        if (expectedSize <= 0) {
+            /* Tables are allocated on first insertion. */
+            return 0;
+        }
+        /* Keep the load factor at or below 1/2. */
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    /**
+     * @return slot of the key, or -(insertion slot + 1) if the key is not contained
+     */
+    private int find(int key) {
+        if (keys.length == 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int s = slot(key);
+        while (used[s]) {
+            if (keys[s] == key) {
+                return s;
+            }
+            s = (s + 1) & mask;
+        }
+        return -(s + 1);
+    }
+
+    public int get(int key, int missingValue) {
+        int s = find(key);
+        return s >= 0 ? values[s] : missingValue;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Associates the value with the key.
+     *
+     * @return previous value, or missingValue if the key was not contained
+     */
+    public int put(int key, int value, int missingValue) {
+        int s = find(key);
+        if (s >= 0) {
+            int previous = values[s];
+            values[s] = value;
+            return previous;
+        }
+        if (2 * (size + 1) > keys.length) {
+            rehash(Math.max(DEFAULT_CAPACITY, keys.length << 1));
+            s = find(key);
+        }
+        s = -s - 1;
+        keys[s] = key;
+        values[s] = value;
+        used[s] = true;
+        size++;
+        return missingValue;
+    }
+
+    public void put(int key, int value) {
+        put(key, value, 0);
+    }
+
+    /**
+     * Adds the delta to the value of the key, a missing key counts as 0.
+     *
+     * @return the new value
+     */
+    public int add(int key, int delta) {
+        int s = find(key);
+        if (s >= 0) {
+            return values[s] += delta;
+        }
+        put(key, delta, 0);
+        return delta;
+    }
+
+    /**
+     * Removes the key.
+     *
+     * @return removed value, or missingValue if the key was not contained
+     */
+    public int remove(int key, int missingValue) {
+        int s = find(key);
+        if (s < 0) {
+            return missingValue;
+        }
+        int removed = values[s];
+        /* Shift following entries of the probe sequence back, so that no tombstones are needed. */
+        int mask = keys.length - 1;
+        int gap = s;
+        int next = (gap + 1) & mask;
+        while (used[next]) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[gap] = false;
+        size--;
+        return removed;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int s = -find(oldKeys[i]) - 1;
+                keys[s] = oldKeys[i];
+                values[s] = oldValues[i];
+                used[s] = true;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Gets a java.util.Map view on this map, changes are written through. Removing entries while iterating is not
+     * supported, use {@link Map#remove(Object)} instead.
+     */
+    public Map<Integer, Integer> asMap() {
+        if (mapView == null) {
+            mapView = new MapView();
+        }
+        return mapView;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    private class MapView extends AbstractMap<Integer, Integer> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && IntIntMap.this.containsKey((Integer) key);
+        }
+
+        @Override
+        public Integer get(Object key) {
+            if (!(key instanceof Integer)) {
+                return null;
+            }
+            int s = find((Integer) key);
+            return s >= 0 ? values[s] : null;
+        }
+
+        @Override
+        public Integer put(Integer key, Integer value) {
+            Integer previous = get(key);
+            IntIntMap.this.put(key, value, 0);
+            return previous;
+        }
+
+        @Override
+        public Integer remove(Object key) {
+            Integer previous = get(key);
+            if (previous != null) {
+                IntIntMap.this.remove((Integer) key, 0);
+            }
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            IntIntMap.this.clear();
+        }
+
+        @Override
+        public Set<Entry<Integer, Integer>> entrySet() {
+            return new AbstractSet<Entry<Integer, Integer>>() {
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<Integer, Integer>> iterator() {
+                    return new Iterator<Entry<Integer, Integer>>() {
+                        private int next = advance(0);
+
+                        private int advance(int s) {
+                            while (s < keys.length && !used[s]) {
+                                s++;
+                            }
+                            return s;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+
+                        @Override
+                        public Entry<Integer, Integer> next() {
+                            if (next >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int current = next;
+                            next = advance(next + 1);
+                            return new SimpleEntry<Integer, Integer>(keys[current], values[current]) {
+                                private static final long serialVersionUID = 1L;
+
+                                @Override
+                                public Integer setValue(Integer value) {
+                                    super.setValue(value);
+                                    return IntIntMap.this.put(getKey(), value, 0);
+                                }
+                            };
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package de.hub.se.cfg;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Open addressing hash map from int to non-null objects with linear probing, keys are stored in a primitive array
+ * without boxing.
+ *
+ */
+public class IntObjectMap<V> implements Serializable {
+
+    private static final long serialVersionUID = -6027718458803296571L;
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private int[] keys;
+    private Object[] values; // null marks a free slot
+    private int size;
+
+    /**
+     * Receives the entries of the map.
+     */
+    public interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    public IntObjectMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize
+     *            - number of entries, which can be added without resizing
+     */
+    public IntObjectMap(int expectedSize) {
+        /* Keep the load factor at or below 1/2, tables are allocated on first insertion. */
+        int capacity = expectedSize <= 0 ? 0 : DEFAULT_CAPACITY;
+        while (capacity > 0 && capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    /**
+     * @return slot of the key, or -(insertion slot + 1) if the key is not contained
+     */
+    private int find(int key) {
+        if (keys.length == 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int s = slot(key);
+        while (values[s] != null) {
+            if (keys[s] == key) {
+                return s;
+            }
+            s = (s + 1) & mask;
+        }
+        return -(s + 1);
+    }
+
+    /**
+     * @return the value, null if the key is not contained
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int s = find(key);
+        return s >= 0 ? (V) values[s] : null;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Associates the value with the key.
+     *
+     * @return previous value, null if the key was not contained
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("IntObjectMap does not support null values");
+        }
+        int s = find(key);
+        if (s >= 0) {
+            V previous = (V) values[s];
+            values[s] = value;
+            return previous;
+        }
+        if (2 * (size + 1) > keys.length) {
+            rehash(Math.max(DEFAULT_CAPACITY, keys.length << 1));
+            s = find(key);
+        }
+        s = -s - 1;
+        keys[s] = key;
+        values[s] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the key.
+     *
+     * @return removed value, null if the key was not contained
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int s = find(key);
+        if (s < 0) {
+            return null;
+        }
+        V removed = (V) values[s];
+        /* Shift following entries of the probe sequence back, so that no tombstones are needed. */
+        int mask = keys.length - 1;
+        int gap = s;
+        int next = (gap + 1) & mask;
+        while (values[next] != null) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int s = -find(oldKeys[i]) - 1;
+                keys[s] = oldKeys[i];
+                values[s] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<V> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Gets a snapshot of all values.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                result.add((V) values[i]);
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,156 @@
+package de.hub.se.cfg;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.apache.bcel.classfile.LineNumber;
+import org.apache.bcel.classfile.LineNumberTable;
+
+/**
+ * Per-method index from bytecode offsets to source lines, built once from the LineNumberTable. Single offsets are
+ * resolved by a binary search over the sorted start offsets, the minimum and maximum source line of an offset range
+ * are answered in constant time by sparse tables over the line number entries.
+ *
+ */
+public class LineNumberIndex implements Serializable {
+
+    private static final long serialVersionUID = -3546093021783456172L;
+
+    /* Start offsets of the line number entries in ascending order and the corresponding source lines. */
+    private final int[] startOffsets;
+    private final int[] lines;
+
+    /* minLines[k][i] (maxLines[k][i]) is the min (max) source line of the entries i .. i + 2^k - 1. */
+    private transient int[][] minLines;
+    private transient int[][] maxLines;
+
+    public LineNumberIndex(LineNumberTable lineNumberTable) {
+        LineNumber[] entries = lineNumberTable == null ? new LineNumber[0] : lineNumberTable.getLineNumberTable();
+        long[] sorted = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            /* Sort by start offset, keep the table order for entries with the same offset. */
+            sorted[i] = ((long) entries[i].getStartPC() << 32) | i;
+        }
+        Arrays.sort(sorted);
+        startOffsets = new int[entries.length];
+        lines = new int[entries.length];
+        for (int i = 0; i < sorted.length; i++) {
+            LineNumber entry = entries[(int) sorted[i]];
+            startOffsets[i] = entry.getStartPC();
+            lines[i] = entry.getLineNumber();
+        }
+        buildTables();
+    }
+
+    /**
+     * Creates the index from entries sorted by start offset, e.g. when it is read from disk.
+     */
+    LineNumberIndex(int[] startOffsets, int[] lines) {
+        this.startOffsets = startOffsets;
+        this.lines = lines;
+        buildTables();
+    }
+
+    int getEntryCount() {
+        return startOffsets.length;
+    }
+
+    int getEntryStartOffset(int entry) {
+        return startOffsets[entry];
+    }
+
+    int getEntryLine(int entry) {
+        return lines[entry];
+    }
+
+    private void buildTables() {
+        int n = lines.length;
+        int levels = 1;
+        while ((1 << levels) <= n) {
+            levels++;
+        }
+        minLines = new int[levels][];
+        maxLines = new int[levels][];
+        minLines[0] = lines;
+        maxLines[0] = lines;
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            int size = n - (1 << k) + 1;
+            minLines[k] = new int[size];
+            maxLines[k] = new int[size];
+            for (int i = 0; i < size; i++) {
+                minLines[k][i] = Math.min(minLines[k - 1][i], minLines[k - 1][i + half]);
+                maxLines[k][i] = Math.max(maxLines[k - 1][i], maxLines[k - 1][i + half]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buildTables();
+    }
+
+    /**
+     * @return index of the last entry starting at or before the given offset, -1 if there is none
+     */
+    private int findEntry(int offset) {
+        int low = 0;
+        int high = startOffsets.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (startOffsets[middle] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Gets the source line for the given bytecode offset.
+     *
+     * @return source line, -1 if no line number is known for the offset
+     */
+    public int getSourceLine(int offset) {
+        int entry = findEntry(offset);
+        return entry < 0 ? -1 : lines[entry];
+    }
+
+    /**
+     * Gets the smallest source line of all offsets between fromOffset and toOffset (both inclusive).
+     *
+     * @return source line, -1 if no line number is known for some offset in the range
+     */
+    public int getMinSourceLine(int fromOffset, int toOffset) {
+        int from = findEntry(fromOffset);
+        int to = findEntry(toOffset);
+        if (from < 0) {
+            return -1;
+        }
+        int k = log2(to - from + 1);
+        return Math.min(minLines[k][from], minLines[k][to - (1 << k) + 1]);
+    }
+
+    /**
+     * Gets the largest source line of all offsets between fromOffset and toOffset (both inclusive).
+     *
+     * @return source line, -1 if no line number is known for any offset in the range
+     */
+    public int getMaxSourceLine(int fromOffset, int toOffset) {
+        int to = findEntry(toOffset);
+        if (to < 0) {
+            return -1;
+        }
+        int from = Math.max(findEntry(fromOffset), 0);
+        int k = log2(to - from + 1);
+        return Math.max(maxLines[k][from], maxLines[k][to - (1 << k) + 1]);
+    }
+
+    private static int log2(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+
+}
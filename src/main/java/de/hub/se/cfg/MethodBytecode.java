@@ -0,0 +1,111 @@
+package de.hub.se.cfg;
+
+import java.util.BitSet;
+
+import org.apache.bcel.classfile.LineNumberTable;
+
+/**
+ * Control flow relevant view on the bytecode of a method, as produced by a {@link BytecodeFrontEnd}. All information is
+ * indexed by bytecode offset, only instructions relevant for basic blocks and calls are classified.
+ *
+ */
+public class MethodBytecode {
+
+    /* Instruction kinds. */
+    public static final byte OTHER = 0;
+    public static final byte GOTO = 1;
+    public static final byte IF = 2;
+    public static final byte SELECT = 3;
+    public static final byte JSR = 4;
+    public static final byte INVOKE = 5;
+    public static final byte EXIT = 6; // invocation of System.exit
+    public static final byte RETURN = 7;
+
+    final int codeLength;
+    final LineNumberTable lineNumberTable;
+
+    final BitSet instructionStarts = new BitSet();
+    final byte[] kinds;
+    final int[] targets; // target offset of GOTO, IF and JSR
+    final int[][] switchTargets; // case target offsets of SELECT, followed by the default target offset
+    final String[] invokedMethods; // full qualified method name of INVOKE and EXIT
+
+    public MethodBytecode(int codeLength, LineNumberTable lineNumberTable) {
+        this.codeLength = codeLength;
+        this.lineNumberTable = lineNumberTable;
+        this.kinds = new byte[codeLength];
+        this.targets = new int[codeLength];
+        this.switchTargets = new int[codeLength][];
+        this.invokedMethods = new String[codeLength];
+    }
+
+    /**
+     * Adds an instruction of kind OTHER, RETURN or JSR.
+     */
+    public void addInstruction(int offset, byte kind) {
+        instructionStarts.set(offset);
+        kinds[offset] = kind;
+    }
+
+    /**
+     * Adds a GOTO, IF or JSR instruction.
+     */
+    public void addBranch(int offset, byte kind, int targetOffset) {
+        addInstruction(offset, kind);
+        targets[offset] = targetOffset;
+    }
+
+    /**
+     * Adds a SELECT instruction.
+     */
+    public void addSwitch(int offset, int[] caseTargetOffsets, int defaultTargetOffset) {
+        addInstruction(offset, SELECT);
+        int[] allTargets = new int[caseTargetOffsets.length + 1];
+        System.arraycopy(caseTargetOffsets, 0, allTargets, 0, caseTargetOffsets.length);
+        allTargets[caseTargetOffsets.length] = defaultTargetOffset;
+        switchTargets[offset] = allTargets;
+    }
+
+    /**
+     * Adds an INVOKE or EXIT instruction.
+     */
+    public void addInvoke(int offset, byte kind, String fullQualifiedMethodName) {
+        addInstruction(offset, kind);
+        invokedMethods[offset] = fullQualifiedMethodName;
+    }
+
+    public boolean isBranch(int offset) {
+        byte kind = kinds[offset];
+        return kind == GOTO || kind == IF || kind == SELECT || kind == JSR;
+    }
+
+    /**
+     * @return offset of the instruction following the given one, -1 if there is none
+     */
+    public int getNextOffset(int offset) {
+        return instructionStarts.nextSetBit(offset + 1);
+    }
+
+    /**
+     * @return offset of the instruction preceding the given one, -1 if there is none
+     */
+    public int getPreviousOffset(int offset) {
+        return instructionStarts.previousSetBit(offset - 1);
+    }
+
+    public int getFirstOffset() {
+        return instructionStarts.nextSetBit(0);
+    }
+
+    public int getLastOffset() {
+        return instructionStarts.length() - 1;
+    }
+
+    /**
+     * Checks whether the invocation of the given method terminates the program.
+     */
+    public static boolean isExit(String methodClass, String methodName) {
+        return (methodClass.indexOf("java.lang.System") != -1) && methodName.equals("exit");
+    }
+
+}
@@ -0,0 +1,71 @@
+package de.hub.se.cfg;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns full qualified method names and assigns each method a dense int id (0, 1, 2, ...), so that the analysis can
+ * key its tables by id instead of hashing long method descriptors. The ids are only valid within the running JVM,
+ * serialized CFGs store method names and intern them again when they are read.
+ *
+ */
+public final class MethodSymbolTable {
+
+    private static final MethodSymbolTable GLOBAL = new MethodSymbolTable();
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[1024];
+    private int size;
+
+    public static MethodSymbolTable getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * Gets the id of the method, a new id is assigned if the method is unknown.
+     */
+    public int intern(String fullQualifiedMethodName) {
+        Integer id = ids.get(fullQualifiedMethodName);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(fullQualifiedMethodName);
+            if (id != null) {
+                return id;
+            }
+            String[] currentNames = names;
+            if (size == currentNames.length) {
+                currentNames = Arrays.copyOf(currentNames, size * 2);
+            }
+            currentNames[size] = fullQualifiedMethodName;
+            /* Publish the name before the id can be seen by other threads. */
+            names = currentNames;
+            ids.put(fullQualifiedMethodName, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Gets the id of the method.
+     *
+     * @return id, -1 if the method was never interned
+     */
+    public int getId(String fullQualifiedMethodName) {
+        Integer id = ids.get(fullQualifiedMethodName);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Gets the full qualified method name for the given id.
+     */
+    public String getName(int methodId) {
+        return names[methodId];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,194 @@
+package de.hub.se.cfg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Flat table of one distance per basic block in a memory mapped file, in the style of the AFL shared memory maps. The
+ * analysis publishes the table, a fuzzing harness in another JVM maps it and reads the distance of a block with a
+ * single load. This class only depends on the JDK, so the harness never loads BCEL or the CFG classes.
+ *
+ * All values are little endian:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  MAGIC "CFGX"
+ *      4     4  VERSION
+ *      8     4  blockCount
+ *     12     4  targetCount
+ *     16     8  generation, incremented with every publish
+ *     24     4 * blockCount  distance per block id, {@link #UNREACHABLE} if no target is reachable
+ * </pre>
+ *
+ * Block ids are the node ids of the analysis. A new table is written next to the file and moved over it atomically,
+ * so a reader always maps a complete table. The mapping of a reader stays valid after a publish, it keeps the old
+ * table until {@link #refresh()} maps the new one.
+ *
+ */
+public class SharedDistanceMap {
+
+    public static final String MAP_FILE_NAME = "cfg.distances";
+
+    public static final int MAGIC = 0x43464758; // "CFGX"
+    public static final int VERSION = 1;
+
+    /* Same value as DistanceMatrix.UNREACHABLE, repeated here to not load the analysis classes. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+
+    private Object fileKey;
+    private int blockCount;
+    private int targetCount;
+    private long generation;
+    private IntBuffer distances;
+
+    private SharedDistanceMap(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Maps the table published at the given file.
+     */
+    public static SharedDistanceMap open(Path file) throws IOException {
+        SharedDistanceMap map = new SharedDistanceMap(file);
+        map.map();
+        return map;
+    }
+
+    private void map() throws IOException {
+        /*
+         * Read the key before opening the file: if a publish replaces the file in between, the new table is mapped
+         * with the old key and the next refresh maps it once more, instead of never mapping the new table.
+         */
+        Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a distance map file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported distance map version " + version + ": " + file);
+            }
+            int blocks = header.getInt();
+            int targets = header.getInt();
+            long gen = header.getLong();
+            IntBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 4L * blocks)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+            fileKey = key;
+            blockCount = blocks;
+            targetCount = targets;
+            generation = gen;
+            distances = table;
+        }
+    }
+
+    /**
+     * Maps the published table again if it was replaced since it was mapped. Without file keys, e.g. on Windows, the
+     * table is always mapped again. Must not be called concurrently with {@link #getDistance(int)}.
+     *
+     * @return true if the table was mapped again
+     */
+    public boolean refresh() throws IOException {
+        Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        if (key != null && key.equals(fileKey)) {
+            return false;
+        }
+        map();
+        return true;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the distance of the block, {@link #UNREACHABLE} if no target is reachable or the block is unknown
+     */
+    public int getDistance(int blockId) {
+        if (blockId < 0 || blockId >= blockCount) {
+            return UNREACHABLE;
+        }
+        return distances.get(blockId);
+    }
+
+    /**
+     * Publishes the table to the given file, replacing the current table atomically.
+     *
+     * @param blockDistances
+     *            - distance per block id, {@link #UNREACHABLE} for blocks, which cannot reach a target
+     * @param targetCount
+     *            - number of targets the distances refer to
+     */
+    public static void publish(Path file, int[] blockDistances, int targetCount) throws IOException {
+        long generation = 1;
+        if (Files.exists(file)) {
+            try {
+                generation = open(file).getGeneration() + 1;
+            } catch (IOException e) {
+                // not a valid table, it is replaced anyway
+            }
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmpFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putInt(blockDistances.length);
+                buffer.putInt(targetCount);
+                buffer.putLong(generation);
+                for (int distance : blockDistances) {
+                    if (buffer.remaining() < 4) {
+                        write(channel, buffer);
+                    }
+                    buffer.putInt(distance);
+                }
+                write(channel, buffer);
+                channel.force(false);
+            }
+            try {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}